@@ -0,0 +1,102 @@
+package expressiontree.jmh;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH suite for parsing, validating, rendering and evaluating
+ * expressions. It measures the same operations on the same generated
+ * workload as ExpressionBenchmark, one operation per parameter value,
+ * and is meant to run with the allocation profiler:
+ * <pre>
+ *     java -jar jmh/target/benchmarks.jar -prof gc
+ *         [-p shape=balanced,degenerate,random] [-p depth=n] [-p vars=n]
+ *         [-p weights=and,or,xor,not] [-p operation=parse\ postfix]
+ * </pre>
+ * Every invocation runs the operation on the next expression of the
+ * workload, wrapping around at its end.
+ *
+ * JMH does not allow benchmarks in the default package, where every
+ * class of the project lives, and a class in a package cannot import
+ * from it. The operations are looked up by reflection once per trial
+ * and called through IntToLongFunction, so no reflection is measured.
+ *
+ * DifferentialCheck runs before every trial and the trial fails if any
+ * evaluation path disagrees with the reference.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ExpressionBenchmarks {
+    /** name of the operation in ExpressionBenchmark.operations */
+    @Param({"validate postfix", "parse postfix", "reject postfix result", "reject postfix exception",
+            "parse infix", "translateToPostfix", "render postfix", "render infix", "render prefix", "compile",
+            "evaluate", "evaluate interpreted", "evaluate 64 rows"})
+    public String operation;
+
+    @Param("42")
+    public long seed;
+
+    @Param("8")
+    public int depth;
+
+    @Param("8")
+    public int vars;
+
+    @Param("random")
+    public String shape;
+
+    @Param("1,1,1,1")
+    public String weights;
+
+    @Param("1024")
+    public int count;
+
+    private IntToLongFunction op;
+    private int next;
+
+    /**
+     * runs the differential check, then builds the workload
+     * and picks the operation to measure
+     *
+     * @throws ReflectiveOperationException if the project classes are missing
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        List<?> failures = (List<?>) Class.forName("DifferentialCheck")
+                .getMethod("run", long.class, int.class)
+                .invoke(null, seed, 50);
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Differential check failed, not benchmarking: " + failures);
+        }
+
+        Map<?, ?> operations = (Map<?, ?>) Class.forName("ExpressionBenchmark")
+                .getMethod("operations", long.class, int.class, int.class, String.class, String.class, int.class)
+                .invoke(null, seed, depth, vars, shape, weights, count);
+        op = (IntToLongFunction) operations.get(operation);
+        if (op == null) {
+            throw new IllegalArgumentException("Unknown operation " + operation + ", expected one of "
+                    + operations.keySet());
+        }
+        next = 0;
+    }
+
+    /**
+     * runs the operation on the next expression of the workload
+     *
+     * @return value derived from the result, consumed by JMH
+     */
+    @Benchmark
+    public long run() {
+        int i = next;
+        next = i + 1 == count ? 0 : i + 1;
+        return op.applyAsLong(i);
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.*;
+
+/**
+ * Reusable set of variable values for one compiled expression.
+ * Values are stored in a boolean array indexed by the variable
+ * slots of the expression, so binding and reading a value is a
+ * plain array access.
+ *
+ */
+public final class Assignment {
+    private final String[] variables;
+    final boolean[] values;
+
+    /**
+     * constructor to create an assignment with every variable false
+     *
+     * @param variables variable names indexed by slot
+     */
+    Assignment(String[] variables) {
+        this.variables = variables;
+        this.values = new boolean[variables.length];
+    }
+
+    /**
+     * sets the value of the variable in a slot
+     *
+     * @param slot variable slot
+     * @param value new value
+     * @return this assignment
+     */
+    public Assignment set(int slot, boolean value) {
+        values[slot] = value;
+        return this;
+    }
+
+    /**
+     * sets the value of a variable by name
+     *
+     * @param variable variable name
+     * @param value new value
+     * @return this assignment
+     */
+    public Assignment set(String variable, boolean value) {
+        values[requireSlot(variable)] = value;
+        return this;
+    }
+
+    /**
+     * sets the values of up to the first 64 slots from the bits
+     * of a long, slot i takes the value of bit i
+     *
+     * @param bits packed variable values
+     * @return this assignment
+     */
+    public Assignment setBits(long bits) {
+        int n = Math.min(values.length, Long.SIZE);
+
+        for (int slot = 0; slot < n; slot++) {
+            values[slot] = ((bits >>> slot) & 1L) != 0L;
+        }
+
+        return this;
+    }
+
+    /**
+     * asks a provider for the value of every variable
+     *
+     * @param provider source of the values
+     * @return this assignment
+     */
+    public Assignment fill(AssignmentProvider provider) {
+        for (int slot = 0; slot < values.length; slot++) {
+            values[slot] = provider.valueOf(variables[slot]);
+        }
+
+        return this;
+    }
+
+    /**
+     * resets every variable to false
+     *
+     * @return this assignment
+     */
+    public Assignment clear() {
+        Arrays.fill(values, false);
+        return this;
+    }
+
+    /**
+     * getter for the value in a slot
+     *
+     * @param slot variable slot
+     * @return value of the variable
+     */
+    public boolean get(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * getter for the value of a variable by name
+     *
+     * @param variable variable name
+     * @return value of the variable
+     */
+    public boolean get(String variable) {
+        return values[requireSlot(variable)];
+    }
+
+    /**
+     * looks up the slot of a variable
+     *
+     * @param variable variable name
+     * @return slot of the variable, or a negative number if it is not used
+     */
+    public int slotOf(String variable) {
+        return Arrays.binarySearch(variables, variable);
+    }
+
+    /**
+     * getter for the number of variables
+     *
+     * @return variable count
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * getter for the name of the variable in a slot
+     *
+     * @param slot variable slot
+     * @return variable name
+     */
+    public String getVariable(int slot) {
+        return variables[slot];
+    }
+
+    /**
+     * checks whether this assignment was made for the given variables
+     *
+     * @param names variable names indexed by slot
+     * @return true if the slots line up
+     */
+    boolean matches(String[] names) {
+        return variables == names || Arrays.equals(variables, names);
+    }
+
+    private int requireSlot(String variable) {
+        int slot = slotOf(variable);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + variable);
+        }
+
+        return slot;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Source of variable values for an evaluation, asked once
+ * per variable when an assignment is filled in
+ *
+ */
+@FunctionalInterface
+public interface AssignmentProvider {
+
+    /**
+     * getter for the value of a variable
+     *
+     * @param variable name of the variable
+     * @return value of the variable
+     */
+    boolean valueOf(String variable);
+}
@@ -0,0 +1,226 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates a file of expressions without any interaction. Every input
+ * line holds an expression, a semicolon and the values of its variables:
+ * <pre>
+ *     (a&amp;b)|!c ; a=1 b=0 c=1
+ * </pre>
+ * and the matching output line holds true, false, or the reason the
+ * line could not be evaluated, so one bad line never stops the run.
+ * Blank lines are copied as blank lines.
+ *
+ * The input is read through a large channel buffer in blocks of lines.
+ * Each block is evaluated on a worker thread while the next blocks are
+ * read, and finished blocks are written in input order through a
+ * buffered writer. Parsed expressions are immutable, so they are kept
+ * in one ExpressionCache shared by all workers and a formula repeated
+ * on many lines is parsed once.
+ *
+ */
+public final class BatchEvaluator {
+    /** lines handed to a worker at a time */
+    public static final int BLOCK_SIZE = 4096;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int CACHE_SIZE = 4096;
+
+    private final ExpressionCache<Expression> cache;
+    private final int threads;
+
+    /**
+     * constructor to set the notation and the number of workers
+     *
+     * @param postfix true if the expressions are postfix, false for infix
+     * @param threads number of worker threads
+     */
+    public BatchEvaluator(boolean postfix, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+
+        this.cache = new ExpressionCache<>(CACHE_SIZE, postfix ? Expression::parsePostfix : Expression::parseInfix);
+        this.threads = threads;
+    }
+
+    /**
+     * constructor to use one worker per core
+     *
+     * @param postfix true if the expressions are postfix, false for infix
+     */
+    public BatchEvaluator(boolean postfix) {
+        this(postfix, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * evaluates every line of a file and writes the results to another
+     *
+     * @param input file of expressions
+     * @param output file for the results, replaced if it exists
+     * @return number of lines which could not be evaluated
+     * @throws IOException if either file cannot be read or written
+     */
+    public long run(Path input, Path output) throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(
+                     Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE), BUFFER_SIZE);
+             BufferedWriter writer = new BufferedWriter(
+                     new OutputStreamWriter(Files.newOutputStream(output), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return run(reader, writer);
+        }
+    }
+
+    /**
+     * evaluates every line of a reader and writes the results in order
+     *
+     * @param reader source of the lines
+     * @param writer destination of the results
+     * @return number of lines which could not be evaluated
+     * @throws IOException if reading or writing fails
+     */
+    public long run(BufferedReader reader, Writer writer) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<String[]>> pending = new ArrayDeque<>();
+        long errors = 0;
+
+        try {
+            String[] block = readBlock(reader);
+            while (block != null) {
+                final String[] lines = block;
+                pending.add(pool.submit(() -> evaluateBlock(lines)));
+
+                // keep a few blocks in flight so workers never wait on the reader
+                if (pending.size() > 2 * threads) {
+                    errors += writeBlock(pending.remove(), writer);
+                }
+                block = readBlock(reader);
+            }
+
+            while (!pending.isEmpty()) {
+                errors += writeBlock(pending.remove(), writer);
+            }
+            writer.flush();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        return errors;
+    }
+
+    /**
+     * reads up to BLOCK_SIZE lines
+     *
+     * @return the lines, or null at the end of the input
+     */
+    private static String[] readBlock(BufferedReader reader) throws IOException {
+        String[] lines = new String[BLOCK_SIZE];
+        int count = 0;
+        String line;
+
+        while (count < BLOCK_SIZE && (line = reader.readLine()) != null) {
+            lines[count++] = line;
+        }
+
+        if (count == 0) {
+            return null;
+        }
+        return count == BLOCK_SIZE ? lines : Arrays.copyOf(lines, count);
+    }
+
+    /**
+     * waits for a block and writes its results, one per line
+     *
+     * @return number of error lines in the block
+     */
+    private static int writeBlock(Future<String[]> block, Writer writer) throws IOException {
+        String[] results;
+        try {
+            results = block.get();
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Batch worker failed", e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for results");
+        }
+
+        int errors = 0;
+        for (String result : results) {
+            if (result.startsWith("error")) {
+                errors++;
+            }
+            writer.write(result);
+            writer.write('\n');
+        }
+
+        return errors;
+    }
+
+    private String[] evaluateBlock(String[] lines) {
+        String[] results = new String[lines.length];
+
+        for (int i = 0; i < lines.length; i++) {
+            results[i] = evaluateLine(lines[i]);
+        }
+
+        return results;
+    }
+
+    /**
+     * evaluates one input line
+     *
+     * @param line expression, semicolon and variable values
+     * @return true, false, an error message, or an empty string for a blank line
+     */
+    String evaluateLine(String line) {
+        if (line.isBlank()) {
+            return "";
+        }
+
+        int split = line.indexOf(';');
+        String expression = split < 0 ? line : line.substring(0, split);
+        String bindings = split < 0 ? "" : line.substring(split + 1);
+
+        try {
+            Expression exp = cache.get(expression);
+            Assignment assignment = exp.newAssignment();
+            boolean[] bound = new boolean[assignment.size()];
+
+            for (String binding : bindings.trim().split("[\\s,]+")) {
+                if (binding.isEmpty()) {
+                    continue;
+                }
+
+                int eq = binding.indexOf('=');
+                String value = eq < 0 ? "" : binding.substring(eq + 1);
+                if (eq < 1 || !(value.equals("0") || value.equals("1"))) {
+                    return "error: Invalid binding " + binding;
+                }
+
+                int slot = assignment.slotOf(binding.substring(0, eq));
+                if (slot >= 0) {
+                    assignment.set(slot, value.equals("1"));
+                    bound[slot] = true;
+                }
+            }
+
+            for (int slot = 0; slot < bound.length; slot++) {
+                if (!bound[slot]) {
+                    return "error: No value for " + assignment.getVariable(slot);
+                }
+            }
+
+            return String.valueOf(exp.evaluate(assignment));
+        }
+        catch (IllegalArgumentException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+}
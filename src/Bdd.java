@@ -0,0 +1,506 @@
+import java.util.*;
+
+/**
+ * Reduced ordered binary decision diagram manager. Every node tests one
+ * variable and has a low child for false and a high child for true. A
+ * unique table makes sure no two nodes test the same variable with the
+ * same children, so within one manager two functions are equal exactly
+ * when their root nodes are equal. Results of {@code &}, |, ^ and ! are
+ * memoized in a direct mapped apply cache.
+ *
+ * Nodes are plain ints. 0 is the false terminal and 1 the true terminal.
+ * Variables are tested in a fixed order given when the manager is created,
+ * level 0 first. Satisfying assignment counts are exact for up to 62
+ * variables.
+ *
+ */
+public final class Bdd {
+    public static final int FALSE = 0;
+    public static final int TRUE = 1;
+
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int XOR = 2;
+
+    /**
+     * heuristics for the order in which the variables are tested
+     */
+    public enum Order {
+        /** alphabetical order of the names */
+        ALPHABETICAL,
+        /** order in which the variables first appear left to right, which keeps related variables close */
+        FIRST_OCCURRENCE,
+        /** variables that appear most often first */
+        FREQUENCY
+    }
+
+    private final String[] variables;
+    private final HashMap<String, Integer> levels = new HashMap<>();
+
+    // node table, index 0 and 1 are the terminals
+    private int[] level;
+    private int[] low;
+    private int[] high;
+    private int size;
+
+    // open addressing unique table holding node indices, -1 when empty
+    private int[] unique;
+
+    // direct mapped apply cache
+    private int[] cacheKeyA;
+    private int[] cacheKeyB;
+    private int[] cacheResult;
+
+    /**
+     * constructor for a manager testing variables in the given order
+     *
+     * @param variables variable names, level 0 first
+     */
+    public Bdd(String... variables) {
+        this.variables = variables.clone();
+        for (int i = 0; i < variables.length; i++) {
+            if (levels.put(variables[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate variable: " + variables[i]);
+            }
+        }
+
+        level = new int[1024];
+        low = new int[level.length];
+        high = new int[level.length];
+        unique = new int[level.length * 2];
+        Arrays.fill(unique, -1);
+        allocateCache(level.length);
+
+        // terminals sit below the last variable level
+        level[FALSE] = variables.length;
+        level[TRUE] = variables.length;
+        size = 2;
+    }
+
+    /**
+     * creates a manager for the variables of some trees, ordered by a heuristic
+     *
+     * @param order ordering heuristic
+     * @param roots root nodes of the trees
+     * @return new manager
+     */
+    public static Bdd forTrees(Order order, TreeNode... roots) {
+        return new Bdd(orderFor(order, roots));
+    }
+
+    /**
+     * computes a variable order for some trees
+     *
+     * @param order ordering heuristic
+     * @param roots root nodes of the trees
+     * @return variable names, level 0 first
+     */
+    public static String[] orderFor(Order order, TreeNode... roots) {
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+
+        for (TreeNode root : roots) {
+            // prefix order walk, left operands first
+            ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                TreeNode n = pending.pop();
+                if (Character.isLetter(n.getData())) {
+                    counts.merge(n.getName(), 1, Integer::sum);
+                }
+                if (n.getRightNode() != null) {
+                    pending.push(n.getRightNode());
+                }
+                if (n.getLeftNode() != null) {
+                    pending.push(n.getLeftNode());
+                }
+            }
+        }
+
+        ArrayList<String> names = new ArrayList<>(counts.keySet());
+        if (order == Order.ALPHABETICAL) {
+            Collections.sort(names);
+        }
+        else if (order == Order.FREQUENCY) {
+            // stable sort, ties keep their first occurrence order
+            names.sort((a, b) -> counts.get(b) - counts.get(a));
+        }
+
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * builds the diagram of a tree. Shared nodes are converted once
+     * and the tree is walked with an explicit stack
+     *
+     * @param root root node of the tree
+     * @return diagram node
+     */
+    public int build(TreeNode root) {
+        IdentityHashMap<TreeNode, Integer> done = new IdentityHashMap<>();
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            TreeNode n = pending.peek();
+            if (done.containsKey(n)) {
+                pending.pop();
+                continue;
+            }
+
+            TreeNode l = n.getLeftNode();
+            TreeNode r = n.getRightNode();
+            boolean ready = true;
+
+            if (r != null && !done.containsKey(r)) {
+                pending.push(r);
+                ready = false;
+            }
+            if (l != null && !done.containsKey(l)) {
+                pending.push(l);
+                ready = false;
+            }
+            if (!ready) {
+                continue;
+            }
+
+            pending.pop();
+            int f;
+            switch (n.getData()) {
+                case '0':
+                    f = FALSE;
+                    break;
+                case '1':
+                    f = TRUE;
+                    break;
+                case '!':
+                    f = not(done.get(r));
+                    break;
+                case '&':
+                    f = and(done.get(l), done.get(r));
+                    break;
+                case '|':
+                    f = or(done.get(l), done.get(r));
+                    break;
+                case '^':
+                    f = xor(done.get(l), done.get(r));
+                    break;
+                default:
+                    f = variable(n.getName());
+                    break;
+            }
+            done.put(n, f);
+        }
+
+        return done.get(root);
+    }
+
+    /**
+     * getter for the diagram of a single variable
+     *
+     * @param name variable name
+     * @return diagram node
+     */
+    public int variable(String name) {
+        Integer v = levels.get(name);
+        if (v == null) {
+            throw new IllegalArgumentException("Variable not in this manager: " + name);
+        }
+
+        return node(v, FALSE, TRUE);
+    }
+
+    public int not(int f) {
+        return apply(XOR, f, TRUE);
+    }
+
+    public int and(int f, int g) {
+        return apply(AND, f, g);
+    }
+
+    public int or(int f, int g) {
+        return apply(OR, f, g);
+    }
+
+    public int xor(int f, int g) {
+        return apply(XOR, f, g);
+    }
+
+    /**
+     * evaluates a diagram, following one branch per tested variable
+     *
+     * @param f diagram node
+     * @param values variable values indexed by level
+     * @return value of the function
+     */
+    public boolean evaluate(int f, boolean[] values) {
+        while (f > TRUE) {
+            f = values[level[f]] ? high[f] : low[f];
+        }
+
+        return f == TRUE;
+    }
+
+    /**
+     * evaluates a diagram, asking the provider only for
+     * the variables on the path that is taken
+     *
+     * @param f diagram node
+     * @param provider source of the variable values
+     * @return value of the function
+     */
+    public boolean evaluate(int f, AssignmentProvider provider) {
+        while (f > TRUE) {
+            f = provider.valueOf(variables[level[f]]) ? high[f] : low[f];
+        }
+
+        return f == TRUE;
+    }
+
+    /**
+     * counts the assignments of all the variables of the manager
+     * which make the function true, in time linear in the diagram size
+     *
+     * @param f diagram node
+     * @return number of satisfying assignments
+     */
+    public long satCount(int f) {
+        if (variables.length > 62) {
+            throw new ArithmeticException("Satisfying assignment count overflows for " + variables.length + " variables");
+        }
+
+        return count(f, new HashMap<>()) << level[f];
+    }
+
+    /**
+     * counts satisfying assignments of the variables from
+     * the level of f down
+     */
+    private long count(int f, HashMap<Integer, Long> memo) {
+        if (f <= TRUE) {
+            return f;
+        }
+
+        Long known = memo.get(f);
+        if (known != null) {
+            return known;
+        }
+
+        long result = (count(low[f], memo) << (level[low[f]] - level[f] - 1))
+                + (count(high[f], memo) << (level[high[f]] - level[f] - 1));
+        memo.put(f, result);
+        return result;
+    }
+
+    /**
+     * finds one satisfying assignment
+     *
+     * @param f diagram node
+     * @return variable values indexed by level, or null if f is unsatisfiable
+     */
+    public boolean[] satisfyingAssignment(int f) {
+        if (f == FALSE) {
+            return null;
+        }
+
+        boolean[] values = new boolean[variables.length];
+        while (f > TRUE) {
+            // every non terminal node other than false can reach true
+            if (low[f] != FALSE) {
+                f = low[f];
+            }
+            else {
+                values[level[f]] = true;
+                f = high[f];
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * counts the nodes reachable from f, terminals included
+     *
+     * @param f diagram node
+     * @return node count
+     */
+    public int nodeCount(int f) {
+        BitSet seen = new BitSet();
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.push(f);
+        seen.set(f);
+
+        while (!pending.isEmpty()) {
+            int n = pending.pop();
+            if (n > TRUE) {
+                for (int child : new int[] {low[n], high[n]}) {
+                    if (!seen.get(child)) {
+                        seen.set(child);
+                        pending.push(child);
+                    }
+                }
+            }
+        }
+
+        return seen.cardinality();
+    }
+
+    /**
+     * getter for the number of nodes in the manager, terminals included
+     *
+     * @return total node count
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getVariableCount() {
+        return variables.length;
+    }
+
+    public String getVariable(int level) {
+        return variables[level];
+    }
+
+    /**
+     * applies a binary operator with the apply cache. The recursion is
+     * bounded by the number of variables, not by the size of the diagrams
+     */
+    private int apply(int op, int f, int g) {
+        switch (op) {
+            case AND:
+                if (f == FALSE || g == FALSE) {
+                    return FALSE;
+                }
+                if (f == TRUE || f == g) {
+                    return g;
+                }
+                if (g == TRUE) {
+                    return f;
+                }
+                break;
+            case OR:
+                if (f == TRUE || g == TRUE) {
+                    return TRUE;
+                }
+                if (f == FALSE || f == g) {
+                    return g;
+                }
+                if (g == FALSE) {
+                    return f;
+                }
+                break;
+            default:
+                if (f == g) {
+                    return FALSE;
+                }
+                if (f == FALSE) {
+                    return g;
+                }
+                if (g == FALSE) {
+                    return f;
+                }
+                if (f == TRUE && g == TRUE) {
+                    return FALSE;
+                }
+                break;
+        }
+
+        // all three operators are commutative, so one cache entry serves both orders
+        if (f > g) {
+            int t = f;
+            f = g;
+            g = t;
+        }
+
+        int a = f * 3 + op;
+        int slot = (int) (mix(a, g) & (cacheResult.length - 1));
+        if (cacheKeyA[slot] == a && cacheKeyB[slot] == g) {
+            return cacheResult[slot];
+        }
+
+        int v = Math.min(level[f], level[g]);
+        int f0 = level[f] == v ? low[f] : f;
+        int f1 = level[f] == v ? high[f] : f;
+        int g0 = level[g] == v ? low[g] : g;
+        int g1 = level[g] == v ? high[g] : g;
+
+        int result = node(v, apply(op, f0, g0), apply(op, f1, g1));
+
+        // the node table may have grown and replaced the cache
+        slot = (int) (mix(a, g) & (cacheResult.length - 1));
+        cacheKeyA[slot] = a;
+        cacheKeyB[slot] = g;
+        cacheResult[slot] = result;
+        return result;
+    }
+
+    /**
+     * finds or creates the node testing a variable with the given children
+     */
+    private int node(int v, int lo, int hi) {
+        if (lo == hi) {
+            return lo;
+        }
+
+        int mask = unique.length - 1;
+        int slot = (int) (mix(v, lo, hi) & mask);
+        while (unique[slot] != -1) {
+            int n = unique[slot];
+            if (level[n] == v && low[n] == lo && high[n] == hi) {
+                return n;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == level.length) {
+            grow();
+            return node(v, lo, hi);
+        }
+
+        int n = size++;
+        level[n] = v;
+        low[n] = lo;
+        high[n] = hi;
+        unique[slot] = n;
+        return n;
+    }
+
+    /**
+     * doubles the node table and rebuilds the unique table and cache
+     */
+    private void grow() {
+        int capacity = level.length * 2;
+        level = Arrays.copyOf(level, capacity);
+        low = Arrays.copyOf(low, capacity);
+        high = Arrays.copyOf(high, capacity);
+
+        unique = new int[capacity * 2];
+        Arrays.fill(unique, -1);
+        int mask = unique.length - 1;
+        for (int n = 2; n < size; n++) {
+            int slot = (int) (mix(level[n], low[n], high[n]) & mask);
+            while (unique[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            unique[slot] = n;
+        }
+
+        allocateCache(capacity);
+    }
+
+    private void allocateCache(int capacity) {
+        cacheKeyA = new int[capacity];
+        cacheKeyB = new int[capacity];
+        cacheResult = new int[capacity];
+        Arrays.fill(cacheKeyA, -1);
+    }
+
+    private static long mix(long a, long b) {
+        long h = a * 0x9E3779B97F4A7C15L + b;
+        return (h ^ (h >>> 29)) * 0xBF58476D1CE4E5B9L >>> 17;
+    }
+
+    private static long mix(long a, long b, long c) {
+        return mix(mix(a, b), c);
+    }
+}
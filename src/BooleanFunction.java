@@ -0,0 +1,25 @@
+/**
+ * A boolean function of the variables of an expression, with the
+ * variable values given by slot either as an array or packed in a long
+ *
+ */
+public interface BooleanFunction {
+
+    /**
+     * evaluates the function
+     *
+     * @param values variable values indexed by slot
+     * @return value of the function
+     */
+    boolean evaluate(boolean[] values);
+
+    /**
+     * evaluates the function for up to 64 variables,
+     * slot i takes the value of bit i
+     *
+     * @param values packed variable values
+     * @return value of the function
+     * @throws IllegalArgumentException if the function has more than 64 variables
+     */
+    boolean evaluate(long values);
+}
@@ -0,0 +1,322 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turns a compiled expression into a hidden class whose evaluate methods
+ * are the expression written out as straight-line JVM bytecode, so
+ * HotSpot can optimize every formula like hand written code.
+ *
+ * Every postfix instruction maps onto a few bytecodes working on the
+ * operand stack: variables are loaded from the boolean[] or shifted out
+ * of the long, the operators become iand, ior and ixor, and shared
+ * subexpressions are kept in local variables. There are no branches, so
+ * the methods need no stack map frames.
+ *
+ * Expressions which would produce methods too large for the JIT to
+ * compile are left to the interpreter, and so are expressions whose
+ * class fails to load, which are counted by getFailureCount.
+ *
+ */
+public final class BytecodeCompiler {
+    /** methods larger than this many bytes are not compiled by HotSpot */
+    static final int MAX_METHOD_SIZE = 8000;
+
+    private static final String CLASS_NAME = "GeneratedBooleanFunction";
+
+    private static final LongAdder FAILURES = new LongAdder();
+    private static volatile Throwable lastFailure;
+
+    // constant pool indices, in the order they are written by constantPool
+    private static final int THIS_CLASS = 2;
+    private static final int SUPER_CLASS = 4;
+    private static final int INTERFACE = 6;
+    private static final int INIT_NAME = 7;
+    private static final int VOID_DESCRIPTOR = 8;
+    private static final int SUPER_INIT = 10;
+    private static final int CODE = 11;
+    private static final int EVALUATE = 12;
+    private static final int ARRAY_DESCRIPTOR = 13;
+    private static final int LONG_DESCRIPTOR = 14;
+    private static final int CONSTANT_POOL_COUNT = 15;
+
+    // opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int LLOAD_1 = 0x1f;
+    private static final int BALOAD = 0x33;
+    private static final int ISTORE = 0x36;
+    private static final int DUP = 0x59;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int LUSHR = 0x7d;
+    private static final int L2I = 0x88;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int WIDE = 0xc4;
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * generates and loads the hidden class of an expression
+     *
+     * @param exp compiled expression
+     * @return the generated function, or the interpreter itself if
+     *         the expression is too large, has too many variables or
+     *         the class could not be loaded, which is counted
+     */
+    public static BooleanFunction compile(CompiledExpression exp) {
+        if (exp.getVariableCount() > Long.SIZE) {
+            return exp;
+        }
+
+        byte[] arrayCode = arrayMethod(exp);
+        byte[] longCode = longMethod(exp);
+        if (arrayCode.length > MAX_METHOD_SIZE || longCode.length > MAX_METHOD_SIZE) {
+            return exp;
+        }
+
+        try {
+            byte[] classFile = classFile(exp, arrayCode, longCode);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (BooleanFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        }
+        catch (VirtualMachineError e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            // TieredFunction calls this from a normal evaluate, which must not start failing
+            FAILURES.increment();
+            lastFailure = e;
+            return exp;
+        }
+    }
+
+    /**
+     * getter for the number of expressions whose class could not be
+     * loaded and which are left to the interpreter
+     *
+     * @return failure count
+     */
+    public static long getFailureCount() {
+        return FAILURES.sum();
+    }
+
+    /**
+     * getter for the most recent reason a class could not be loaded
+     *
+     * @return exception thrown while loading, or null if none failed
+     */
+    public static Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * generates the body of evaluate(boolean[]), the array is local 1
+     * and the temporaries start at local 2
+     */
+    private static byte[] arrayMethod(CompiledExpression exp) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] code = exp.code();
+        int[] operands = exp.operands();
+
+        for (int pc = 0; pc < code.length; pc++) {
+            if (code[pc] == CompiledExpression.LOAD) {
+                out.write(ALOAD_1);
+                pushInt(out, operands[pc]);
+                out.write(BALOAD);
+            }
+            else {
+                writeCommon(out, code[pc], operands[pc], 2);
+            }
+        }
+        out.write(IRETURN);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * generates the body of evaluate(long), the long takes locals 1
+     * and 2 and the temporaries start at local 3
+     */
+    private static byte[] longMethod(CompiledExpression exp) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] code = exp.code();
+        int[] operands = exp.operands();
+
+        for (int pc = 0; pc < code.length; pc++) {
+            if (code[pc] == CompiledExpression.LOAD) {
+                // (int) (values >>> slot) & 1
+                out.write(LLOAD_1);
+                pushInt(out, operands[pc]);
+                out.write(LUSHR);
+                out.write(L2I);
+                out.write(ICONST_1);
+                out.write(IAND);
+            }
+            else {
+                writeCommon(out, code[pc], operands[pc], 3);
+            }
+        }
+        out.write(IRETURN);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * writes the bytecode of every instruction except LOAD
+     *
+     * @param out method body
+     * @param op instruction
+     * @param operand temporary number for TEE and TEMP
+     * @param firstTemp local variable of temporary 0
+     */
+    private static void writeCommon(ByteArrayOutputStream out, byte op, int operand, int firstTemp) {
+        switch (op) {
+            case CompiledExpression.FALSE:
+                out.write(ICONST_0);
+                break;
+            case CompiledExpression.TRUE:
+                out.write(ICONST_1);
+                break;
+            case CompiledExpression.NOT:
+                out.write(ICONST_1);
+                out.write(IXOR);
+                break;
+            case CompiledExpression.AND:
+                out.write(IAND);
+                break;
+            case CompiledExpression.OR:
+                out.write(IOR);
+                break;
+            case CompiledExpression.XOR:
+                out.write(IXOR);
+                break;
+            case CompiledExpression.TEE:
+                out.write(DUP);
+                writeLocal(out, ISTORE, firstTemp + operand);
+                break;
+            case CompiledExpression.TEMP:
+                writeLocal(out, ILOAD, firstTemp + operand);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown instruction " + op);
+        }
+    }
+
+    private static void writeLocal(ByteArrayOutputStream out, int opcode, int local) {
+        if (local <= 0xFF) {
+            out.write(opcode);
+            out.write(local);
+        }
+        else {
+            out.write(WIDE);
+            out.write(opcode);
+            out.write(local >>> 8);
+            out.write(local);
+        }
+    }
+
+    private static void pushInt(ByteArrayOutputStream out, int value) {
+        if (value <= 5) {
+            out.write(ICONST_0 + value);
+        }
+        else if (value <= Byte.MAX_VALUE) {
+            out.write(BIPUSH);
+            out.write(value);
+        }
+        else {
+            out.write(SIPUSH);
+            out.write(value >>> 8);
+            out.write(value);
+        }
+    }
+
+    /**
+     * writes the whole class file: a final class implementing
+     * BooleanFunction with a constructor and the two evaluate methods
+     */
+    private static byte[] classFile(CompiledExpression exp, byte[] arrayCode, byte[] longCode) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(61);
+        constantPool(out);
+
+        out.writeShort(0x0031);         // public final super
+        out.writeShort(THIS_CLASS);
+        out.writeShort(SUPER_CLASS);
+        out.writeShort(1);
+        out.writeShort(INTERFACE);
+        out.writeShort(0);              // fields
+
+        out.writeShort(3);              // methods
+        byte[] init = {ALOAD_0, (byte) INVOKESPECIAL, 0, SUPER_INIT, (byte) RETURN};
+        method(out, INIT_NAME, VOID_DESCRIPTOR, init, 1, 1);
+        method(out, EVALUATE, ARRAY_DESCRIPTOR, arrayCode, exp.maxDepth() + 2, 2 + exp.tempCount());
+        method(out, EVALUATE, LONG_DESCRIPTOR, longCode, exp.maxDepth() + 3, 3 + exp.tempCount());
+
+        out.writeShort(0);              // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void constantPool(DataOutputStream out) throws IOException {
+        out.writeShort(CONSTANT_POOL_COUNT);
+        utf8(out, CLASS_NAME);                          // 1
+        classRef(out, 1);                               // 2
+        utf8(out, "java/lang/Object");                  // 3
+        classRef(out, 3);                               // 4
+        utf8(out, BooleanFunction.class.getName());     // 5
+        classRef(out, 5);                               // 6
+        utf8(out, "<init>");                            // 7
+        utf8(out, "()V");                               // 8
+        out.writeByte(12);                              // 9 name and type
+        out.writeShort(INIT_NAME);
+        out.writeShort(VOID_DESCRIPTOR);
+        out.writeByte(10);                              // 10 method ref
+        out.writeShort(SUPER_CLASS);
+        out.writeShort(9);
+        utf8(out, "Code");                              // 11
+        utf8(out, "evaluate");                          // 12
+        utf8(out, "([Z)Z");                             // 13
+        utf8(out, "(J)Z");                              // 14
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void classRef(DataOutputStream out, int name) throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+
+    private static void method(DataOutputStream out, int name, int descriptor, byte[] code, int maxStack,
+                               int maxLocals) throws IOException {
+        out.writeShort(0x0001);         // public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(CODE);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);              // exception table
+        out.writeShort(0);              // code attributes
+    }
+}
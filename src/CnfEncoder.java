@@ -0,0 +1,146 @@
+import java.util.*;
+
+/**
+ * Tseitin encoder which turns expression trees into clauses of a
+ * SatSolver. Every distinct operator node gets a solver variable which
+ * is made equivalent to the operator applied to its operands, so the
+ * clauses grow linearly with the tree instead of exponentially as a
+ * distributed CNF would:
+ * <pre>
+ *     g = a &amp; b:  (!g | a) (!g | b) (g | !a | !b)
+ *     g = a | b:  (g | !a) (g | !b) (!g | a | b)
+ *     g = a ^ b:  (!g | a | b) (!g | !a | !b) (g | !a | b) (g | a | !b)
+ * </pre>
+ * ! needs no variable, it negates the literal of its operand. The tree
+ * is walked with an explicit stack and shared nodes are encoded once.
+ *
+ * Nothing is asserted by encode, it returns the literal of the root, so
+ * several expressions can be encoded into one solver and checked with
+ * assumptions: solve(root) looks for a model, solve(-root) for a
+ * counterexample. Variables of the same name share one solver variable
+ * across every encoded tree.
+ *
+ */
+public final class CnfEncoder {
+    private final SatSolver solver;
+    private final HashMap<String, Integer> variables = new HashMap<>();
+    private final IdentityHashMap<TreeNode, Integer> literals = new IdentityHashMap<>();
+    private int trueVariable;
+
+    /**
+     * constructor to set the solver which receives the clauses
+     *
+     * @param solver solver to fill
+     */
+    public CnfEncoder(SatSolver solver) {
+        this.solver = solver;
+    }
+
+    /**
+     * adds the clauses defining a tree
+     *
+     * @param root root node of the tree
+     * @return DIMACS literal which is true exactly when the tree is
+     */
+    public int encode(TreeNode root) {
+        if (root == null) {
+            throw new IllegalArgumentException("Cannot encode an empty expression tree");
+        }
+
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            TreeNode n = pending.peek();
+            if (literals.containsKey(n)) {
+                pending.pop();
+                continue;
+            }
+
+            boolean ready = true;
+            if (n.getRightNode() != null && !literals.containsKey(n.getRightNode())) {
+                pending.push(n.getRightNode());
+                ready = false;
+            }
+            if (n.getLeftNode() != null && !literals.containsKey(n.getLeftNode())) {
+                pending.push(n.getLeftNode());
+                ready = false;
+            }
+
+            if (ready) {
+                pending.pop();
+                literals.put(n, define(n));
+            }
+        }
+
+        return literals.get(root);
+    }
+
+    /**
+     * getter for the solver variable of an expression variable
+     *
+     * @param name variable name
+     * @return variable number, or 0 if no encoded tree uses the name
+     */
+    public int variableOf(String name) {
+        Integer v = variables.get(name);
+        return v == null ? 0 : v;
+    }
+
+    /**
+     * getter for the solver receiving the clauses
+     *
+     * @return solver
+     */
+    public SatSolver getSolver() {
+        return solver;
+    }
+
+    /**
+     * creates the literal of a node whose operands are already encoded
+     */
+    private int define(TreeNode n) {
+        char c = n.getData();
+
+        if (Character.isLetter(c)) {
+            return variables.computeIfAbsent(n.getName(), name -> solver.newVariable());
+        }
+        if (c == '0' || c == '1') {
+            if (trueVariable == 0) {
+                trueVariable = solver.newVariable();
+                solver.addClause(trueVariable);
+            }
+            return c == '1' ? trueVariable : -trueVariable;
+        }
+
+        int b = literals.get(n.getRightNode());
+        if (c == '!') {
+            return -b;
+        }
+
+        int a = literals.get(n.getLeftNode());
+        int g = solver.newVariable();
+        switch (c) {
+            case '&':
+                solver.addClause(-g, a);
+                solver.addClause(-g, b);
+                solver.addClause(g, -a, -b);
+                break;
+            case '|':
+                solver.addClause(g, -a);
+                solver.addClause(g, -b);
+                solver.addClause(-g, a, b);
+                break;
+            case '^':
+                solver.addClause(-g, a, b);
+                solver.addClause(-g, -a, -b);
+                solver.addClause(g, -a, b);
+                solver.addClause(g, a, -b);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operator " + c);
+        }
+
+        return g;
+    }
+}
@@ -0,0 +1,368 @@
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+/**
+ * Applies an expression as a row filter to columnar data. Every variable
+ * is a column of bits, bit r of a column being the variable's value in
+ * row r, and the result is a bitmap of the rows where the expression is
+ * true.
+ *
+ * The instructions of the compiled expression are run over a chunk of
+ * CHUNK_WORDS words at a time instead of once per row: each instruction
+ * is a tight loop applying its operator to whole words, so 64 rows are
+ * handled by one machine operation and the loops are simple enough for
+ * the JIT to unroll and vectorize. The stack of chunk buffers belongs to
+ * a worker. Idle workers are kept in a small pool owned by the filter,
+ * one slot per processor, so the buffers are reused for every chunk of
+ * every call, a small filter allocates nothing but its result, and the
+ * buffers are freed together with the filter.
+ *
+ * Inputs of at least PARALLEL_THRESHOLD words are split into ranges of
+ * chunks which are filtered in parallel on the common fork/join pool.
+ *
+ * When the JVM runs with --add-modules jdk.incubator.vector the chunks
+ * are handed to VectorColumnEvaluator instead, which applies the
+ * operators to whole vectors of words and folds chains of operators
+ * into one pass over a tile. It is loaded reflectively, so without the module, with
+ * vectors of a single word, or with -Dexpression.vector=false the scalar
+ * loops are used.
+ *
+ */
+public final class ColumnFilter {
+    /** words processed by each instruction at a time */
+    public static final int CHUNK_WORDS = 1024;
+
+    /** inputs with at least this many words are filtered in parallel */
+    public static final int PARALLEL_THRESHOLD = 16 * CHUNK_WORDS;
+
+    // constructor of VectorColumnEvaluator, or null if the Vector API cannot be used
+    private static final Constructor<?> VECTOR_BACKEND = loadVectorBackend();
+
+    private final CompiledExpression exp;
+    private final boolean vectorized;
+    private final Backend backend;
+    private final AtomicReferenceArray<Worker> idle =
+            new AtomicReferenceArray<>(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Evaluates the expression over chunks of bit packed columns,
+     * with one Worker for each thread filtering at the same time
+     */
+    interface Backend {
+        Worker newWorker();
+    }
+
+    /**
+     * Evaluates chunks with buffers of its own
+     */
+    interface Worker {
+        /**
+         * evaluates one chunk of words
+         *
+         * @param columns one column per variable slot
+         * @param result result bitmap
+         * @param start first word of the chunk
+         * @param n words in the chunk, at most CHUNK_WORDS
+         */
+        void run(long[][] columns, long[] result, int start, int n);
+    }
+
+    /**
+     * constructor for the expression to filter with, using
+     * the Vector API when it is available
+     *
+     * @param exp compiled expression
+     */
+    public ColumnFilter(CompiledExpression exp) {
+        this(exp, VECTOR_BACKEND != null);
+    }
+
+    /**
+     * constructor for the expression to filter with
+     *
+     * @param exp compiled expression
+     * @param vectorized true to use the Vector API, false for the scalar loops
+     * @throws IllegalStateException if vectorized is true and the Vector API is not available
+     */
+    public ColumnFilter(CompiledExpression exp, boolean vectorized) {
+        this.exp = exp;
+        this.vectorized = vectorized;
+        this.backend = vectorized ? newVectorBackend(exp) : () -> new ScalarWorker(exp);
+    }
+
+    /**
+     * checks whether the Vector API backend can be used
+     *
+     * @return true if the JVM runs with jdk.incubator.vector and has vectors of several words
+     */
+    public static boolean isVectorAvailable() {
+        return VECTOR_BACKEND != null;
+    }
+
+    /**
+     * checks whether this filter uses the Vector API backend
+     *
+     * @return true if vectorized, false if it uses the scalar loops
+     */
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    /**
+     * looks up VectorColumnEvaluator, which fails to link
+     * when jdk.incubator.vector is not in the module graph
+     */
+    private static Constructor<?> loadVectorBackend() {
+        if (!Boolean.parseBoolean(System.getProperty("expression.vector", "true"))) {
+            return null;
+        }
+
+        try {
+            Class<?> type = Class.forName("VectorColumnEvaluator");
+            int lanes = (Integer) type.getDeclaredMethod("lanes").invoke(null);
+            return lanes > 1 ? type.getDeclaredConstructor(CompiledExpression.class) : null;
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static Backend newVectorBackend(CompiledExpression exp) {
+        if (VECTOR_BACKEND == null) {
+            throw new IllegalStateException("The Vector API is not available, run with --add-modules jdk.incubator.vector");
+        }
+
+        try {
+            return (Backend) VECTOR_BACKEND.newInstance(exp);
+        }
+        catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * filters rows given as bit packed columns
+     *
+     * @param columns one column per variable, by variable name
+     * @param rows number of rows
+     * @return result bitmap, bit r is set if row r passes the filter
+     */
+    public long[] filter(Map<String, long[]> columns, int rows) {
+        long[][] slots = new long[exp.getVariableCount()][];
+
+        for (int slot = 0; slot < slots.length; slot++) {
+            slots[slot] = columns.get(exp.getVariable(slot));
+            if (slots[slot] == null) {
+                throw new IllegalArgumentException("No column for variable " + exp.getVariable(slot));
+            }
+        }
+
+        return filter(slots, rows);
+    }
+
+    /**
+     * filters rows given as bit sets
+     *
+     * @param columns one column per variable, by variable name
+     * @param rows number of rows
+     * @return bit set of the rows that pass the filter
+     */
+    public BitSet filterBits(Map<String, BitSet> columns, int rows) {
+        long[][] slots = new long[exp.getVariableCount()][];
+
+        for (int slot = 0; slot < slots.length; slot++) {
+            BitSet column = columns.get(exp.getVariable(slot));
+            if (column == null) {
+                throw new IllegalArgumentException("No column for variable " + exp.getVariable(slot));
+            }
+            // toLongArray drops trailing zero words, so pad it back to the row count
+            slots[slot] = Arrays.copyOf(column.toLongArray(), words(rows));
+        }
+
+        return BitSet.valueOf(filter(slots, rows));
+    }
+
+    /**
+     * filters rows given as bit packed columns indexed by variable slot
+     *
+     * @param columns one column per variable slot
+     * @param rows number of rows
+     * @return result bitmap, bit r is set if row r passes the filter
+     */
+    public long[] filter(long[][] columns, int rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("Negative row count: " + rows);
+        }
+        if (columns.length != exp.getVariableCount()) {
+            throw new IllegalArgumentException("Expected " + exp.getVariableCount() + " columns but got "
+                    + columns.length);
+        }
+
+        int words = words(rows);
+        for (int slot = 0; slot < columns.length; slot++) {
+            if (columns[slot].length < words) {
+                throw new IllegalArgumentException("Column " + exp.getVariable(slot) + " has fewer than "
+                        + rows + " rows");
+            }
+        }
+
+        long[] result = new long[words];
+        int chunks = (words + CHUNK_WORDS - 1) / CHUNK_WORDS;
+
+        if (words < PARALLEL_THRESHOLD) {
+            filterChunks(columns, result, 0, chunks);
+        }
+        else {
+            int parts = Math.min(chunks, 4 * Runtime.getRuntime().availableProcessors());
+            IntStream.range(0, parts).parallel().forEach(p ->
+                    filterChunks(columns, result, chunks * p / parts, chunks * (p + 1) / parts));
+        }
+
+        // clear the rows past the end which NOT and TRUE may have set
+        if ((rows & 63) != 0) {
+            result[words - 1] &= (1L << rows) - 1;
+        }
+
+        return result;
+    }
+
+    private static int words(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    /**
+     * runs a worker from the pool over a range of chunks
+     *
+     * @param columns one column per variable slot
+     * @param result result bitmap
+     * @param from first chunk
+     * @param to chunk after the last one
+     */
+    private void filterChunks(long[][] columns, long[] result, int from, int to) {
+        Worker worker = acquire();
+
+        for (int chunk = from; chunk < to; chunk++) {
+            int start = chunk * CHUNK_WORDS;
+            worker.run(columns, result, start, Math.min(CHUNK_WORDS, result.length - start));
+        }
+
+        release(worker);
+    }
+
+    /**
+     * takes an idle worker from the pool, or creates one if all are in use
+     */
+    private Worker acquire() {
+        for (int i = 0; i < idle.length(); i++) {
+            Worker worker = idle.getAndSet(i, null);
+            if (worker != null) {
+                return worker;
+            }
+        }
+
+        return backend.newWorker();
+    }
+
+    /**
+     * puts a worker back into the pool, dropping it if the pool is full
+     */
+    private void release(Worker worker) {
+        for (int i = 0; i < idle.length(); i++) {
+            if (idle.get(i) == null && idle.compareAndSet(i, null, worker)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs the instructions one at a time over a chunk, with a stack
+     * of chunk buffers followed by the temporaries
+     */
+    private static final class ScalarWorker implements Worker {
+        private final byte[] code;
+        private final int[] operands;
+        private final int maxDepth;
+        private final long[][] scratch;
+
+        ScalarWorker(CompiledExpression exp) {
+            this.code = exp.code();
+            this.operands = exp.operands();
+            this.maxDepth = exp.maxDepth();
+            this.scratch = new long[maxDepth + exp.tempCount()][CHUNK_WORDS];
+        }
+
+        @Override
+        public void run(long[][] columns, long[] result, int start, int n) {
+            int top = -1;
+
+            for (int pc = 0; pc < code.length; pc++) {
+                switch (code[pc]) {
+                    case CompiledExpression.FALSE:
+                        Arrays.fill(scratch[++top], 0, n, 0L);
+                        break;
+                    case CompiledExpression.TRUE:
+                        Arrays.fill(scratch[++top], 0, n, -1L);
+                        break;
+                    case CompiledExpression.LOAD:
+                        System.arraycopy(columns[operands[pc]], start, scratch[++top], 0, n);
+                        break;
+                    case CompiledExpression.NOT:
+                        not(scratch[top], n);
+                        break;
+                    case CompiledExpression.AND:
+                        top--;
+                        and(scratch[top], scratch[top + 1], n);
+                        break;
+                    case CompiledExpression.OR:
+                        top--;
+                        or(scratch[top], scratch[top + 1], n);
+                        break;
+                    case CompiledExpression.XOR:
+                        top--;
+                        xor(scratch[top], scratch[top + 1], n);
+                        break;
+                    case CompiledExpression.TEE:
+                        System.arraycopy(scratch[top], 0, scratch[maxDepth + operands[pc]], 0, n);
+                        break;
+                    case CompiledExpression.TEMP:
+                        System.arraycopy(scratch[maxDepth + operands[pc]], 0, scratch[++top], 0, n);
+                        break;
+                }
+            }
+
+            System.arraycopy(scratch[0], 0, result, start, n);
+        }
+    }
+
+    private static void not(long[] a, int n) {
+        for (int i = 0; i < n; i++) {
+            a[i] = ~a[i];
+        }
+    }
+
+    private static void and(long[] a, long[] b, int n) {
+        for (int i = 0; i < n; i++) {
+            a[i] &= b[i];
+        }
+    }
+
+    private static void or(long[] a, long[] b, int n) {
+        for (int i = 0; i < n; i++) {
+            a[i] |= b[i];
+        }
+    }
+
+    private static void xor(long[] a, long[] b, int n) {
+        for (int i = 0; i < n; i++) {
+            a[i] ^= b[i];
+        }
+    }
+}
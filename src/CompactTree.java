@@ -0,0 +1,543 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Struct-of-arrays form of an expression tree for very large formulas.
+ * Instead of one TreeNode object per node the tree is held in two
+ * parallel arrays in post-order, so the children of a node always come
+ * before it and the root is the last entry:
+ * <ul>
+ * <li>ops, the opcode of each node, using the CompiledExpression opcodes
+ * <li>child, the index of the left child of a binary node, or the
+ * variable slot of a LOAD
+ * </ul>
+ * The right child of an operator, and the operand of !, is always the
+ * node just before it, so it needs no entry. A node costs five bytes
+ * instead of a TreeNode object and its references.
+ *
+ * Because the arrays are postfix code, they are evaluated as they are
+ * by a CompiledExpression sharing them, reading memory front to back.
+ * Postfix and prefix rendering walk the arrays the same way. The tree
+ * does not share subexpressions, so converting a shared TreeNode graph
+ * copies every shared node.
+ *
+ */
+public final class CompactTree implements BooleanFunction {
+    private final byte[] ops;
+    private final int[] child;
+    private final String[] variables;
+    private final CompiledExpression compiled;
+
+    /**
+     * constructor for arrays filled by a Builder
+     *
+     * @param ops opcode of each node in post-order
+     * @param child left child index or variable slot of each node
+     * @param variables variable names indexed by slot
+     */
+    private CompactTree(byte[] ops, int[] child, String[] variables) {
+        this.ops = ops;
+        this.child = child;
+        this.variables = variables;
+        this.compiled = new CompiledExpression(ops, child, variables);
+    }
+
+    /**
+     * constructor for arrays which were checked when they were
+     * loaded, with the stack depth stored next to them
+     *
+     * @param ops opcode of each node in post-order
+     * @param child left child index or variable slot of each node
+     * @param variables variable names indexed by slot
+     * @param maxDepth deepest stack evaluation reaches
+     */
+    CompactTree(byte[] ops, int[] child, String[] variables, int maxDepth) {
+        this.ops = ops;
+        this.child = child;
+        this.variables = variables;
+        this.compiled = new CompiledExpression(ops, child, variables, maxDepth, 0);
+    }
+
+    /**
+     * builds a compact tree from a postfix expression
+     *
+     * @param postfix postfix expression, whitespace is skipped
+     * @return compact tree
+     * @throws ExpressionParseException if the expression is invalid
+     */
+    public static CompactTree fromPostfix(CharSequence postfix) {
+        Builder builder = new Builder(postfix.length());
+
+        for (int i = 0; i < postfix.length(); i++) {
+            char c = postfix.charAt(i);
+            if (c == '[') {
+                int end = SymbolTable.bracketEnd(postfix, i);
+                if (end < 0) {
+                    throw new ExpressionParseException("Invalid variable name", i);
+                }
+                builder.addVariable(postfix.subSequence(i + 1, end).toString(), i);
+                i = end;
+            }
+            else if (!Character.isWhitespace(c)) {
+                builder.add(c, i);
+            }
+        }
+
+        return builder.build(postfix.length());
+    }
+
+    /**
+     * builds a compact tree from an infix expression
+     *
+     * @param infix infix expression
+     * @return compact tree
+     * @throws ExpressionParseException if the expression is invalid
+     */
+    public static CompactTree fromInfix(CharSequence infix) {
+        return InfixParser.parseCompact(infix);
+    }
+
+    /**
+     * copies a tree of nodes, walking it with an explicit stack
+     *
+     * @param root root node of the tree
+     * @return compact tree
+     */
+    public static CompactTree of(TreeNode root) {
+        if (root == null) {
+            throw new IllegalArgumentException("Cannot convert an empty expression tree");
+        }
+
+        Builder builder = new Builder(16);
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        ArrayDeque<Boolean> expanded = new ArrayDeque<>();
+        pending.push(root);
+        expanded.push(false);
+
+        while (!pending.isEmpty()) {
+            TreeNode node = pending.pop();
+
+            if (expanded.pop()) {
+                if (Character.isLetter(node.getData())) {
+                    builder.addVariable(node.getName(), builder.size());
+                }
+                else {
+                    builder.add(node.getData(), builder.size());
+                }
+                continue;
+            }
+
+            pending.push(node);
+            expanded.push(true);
+            if (node.getRightNode() != null) {
+                pending.push(node.getRightNode());
+                expanded.push(false);
+            }
+            if (node.getLeftNode() != null) {
+                pending.push(node.getLeftNode());
+                expanded.push(false);
+            }
+        }
+
+        return builder.build(builder.size());
+    }
+
+    /**
+     * converts back into a tree of nodes
+     *
+     * @return root node of the new tree
+     */
+    public TreeNode toTreeNode() {
+        TreeNode[] stack = new TreeNode[compiled.maxDepth()];
+        int top = -1;
+
+        for (int i = 0; i < ops.length; i++) {
+            TreeNode right = null;
+            TreeNode left = null;
+
+            if (ops[i] == CompiledExpression.NOT) {
+                right = stack[top--];
+            }
+            else if (ops[i] >= CompiledExpression.AND) {
+                right = stack[top--];
+                left = stack[top--];
+            }
+            stack[++top] = ops[i] == CompiledExpression.LOAD ? new TreeNode(variables[child[i]])
+                    : new TreeNode(symbol(i), left, right);
+        }
+
+        return stack[0];
+    }
+
+    @Override
+    public boolean evaluate(boolean[] values) {
+        return compiled.evaluate(values);
+    }
+
+    @Override
+    public boolean evaluate(long values) {
+        return compiled.evaluate(values);
+    }
+
+    /**
+     * evaluates the tree with the values bound in an assignment
+     *
+     * @param assignment values created by newAssignment
+     * @return result of the expression
+     */
+    public boolean evaluate(Assignment assignment) {
+        return compiled.evaluate(assignment);
+    }
+
+    /**
+     * evaluates the tree for 64 assignments at once, see
+     * CompiledExpression.evaluateWords
+     *
+     * @param values one word of variable values per slot
+     * @param stack scratch stack from newWordStack
+     * @return word holding the result for each bit position
+     */
+    public long evaluateWords(long[] values, long[] stack) {
+        return compiled.evaluateWords(values, stack);
+    }
+
+    /**
+     * creates a scratch stack big enough for evaluateWords
+     *
+     * @return empty word stack
+     */
+    public long[] newWordStack() {
+        return compiled.newWordStack();
+    }
+
+    /**
+     * creates an assignment with every variable false
+     *
+     * @return new assignment
+     */
+    public Assignment newAssignment() {
+        return compiled.newAssignment();
+    }
+
+    /**
+     * getter for the compiled view, which shares the arrays of this tree
+     *
+     * @return compiled expression
+     */
+    public CompiledExpression compile() {
+        return compiled;
+    }
+
+    /**
+     * getter for the number of nodes
+     *
+     * @return node count
+     */
+    public int size() {
+        return ops.length;
+    }
+
+    /**
+     * getter for the number of variables
+     *
+     * @return variable count
+     */
+    public int getVariableCount() {
+        return variables.length;
+    }
+
+    /**
+     * getter for the name of the variable in a slot
+     *
+     * @param slot variable slot
+     * @return variable name
+     */
+    public String getVariable(int slot) {
+        return variables[slot];
+    }
+
+    /**
+     * getter for the postfix expression, which is the node
+     * symbols in array order, with long names written as [name]
+     *
+     * @return postfix expression
+     */
+    public String getPostfixExp() {
+        StringBuilder out = new StringBuilder(ops.length);
+
+        for (int i = 0; i < ops.length; i++) {
+            appendSymbol(out, i, true);
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * getter for the prefix expression, each node is
+     * written before its left and then its right subtree
+     *
+     * @return prefix expression
+     */
+    public String getPrefixExp() {
+        StringBuilder out = new StringBuilder(ops.length);
+        int[] pending = new int[16];
+        int top = 0;
+        pending[0] = ops.length - 1;
+
+        while (top >= 0) {
+            int i = pending[top--];
+            appendSymbol(out, i, true);
+
+            if (top + 2 >= pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            if (ops[i] == CompiledExpression.NOT) {
+                pending[++top] = i - 1;
+            }
+            else if (ops[i] >= CompiledExpression.AND) {
+                pending[++top] = i - 1;
+                pending[++top] = child[i];
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * getter for the fully parenthesized infix expression, in the same
+     * form as ExpressionTree.getInfixExp. Pending work is kept on an int
+     * stack, node indices as they are and characters as ~c
+     *
+     * @return infix expression
+     */
+    public String getInfixExp() {
+        StringBuilder out = new StringBuilder(ops.length * 2);
+        int[] pending = new int[16];
+        int top = 0;
+        pending[0] = ops.length - 1;
+
+        while (top >= 0) {
+            int item = pending[top--];
+            if (item < 0) {
+                out.append((char) ~item);
+                continue;
+            }
+
+            if (ops[item] < CompiledExpression.NOT) {
+                appendSymbol(out, item, false);
+                continue;
+            }
+
+            if (top + 5 >= pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[++top] = ~')';
+            pending[++top] = item - 1;
+            pending[++top] = ~symbol(item);
+            if (ops[item] != CompiledExpression.NOT) {
+                pending[++top] = child[item];
+            }
+            pending[++top] = ~'(';
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * writes the postfix expression
+     *
+     * @param out destination of the expression
+     * @throws IOException if writing fails
+     */
+    public void writePostfixExp(Appendable out) throws IOException {
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == CompiledExpression.LOAD) {
+                SymbolTable.appendBracketed(variables[child[i]], out);
+            }
+            else {
+                out.append(symbol(i));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getInfixExp();
+    }
+
+    /**
+     * writes the symbol of a node, or the name of a variable
+     *
+     * @param out destination of the expression
+     * @param i node index
+     * @param bracketed true to write long names as [name]
+     */
+    private void appendSymbol(StringBuilder out, int i, boolean bracketed) {
+        if (ops[i] != CompiledExpression.LOAD) {
+            out.append(symbol(i));
+        }
+        else if (bracketed) {
+            SymbolTable.appendBracketed(variables[child[i]], out);
+        }
+        else {
+            out.append(variables[child[i]]);
+        }
+    }
+
+    /**
+     * getter for the symbol of an operator or constant node
+     *
+     * @param i node index
+     * @return operator or constant
+     */
+    private char symbol(int i) {
+        switch (ops[i]) {
+            case CompiledExpression.FALSE: return '0';
+            case CompiledExpression.TRUE: return '1';
+            case CompiledExpression.NOT: return '!';
+            case CompiledExpression.AND: return '&';
+            case CompiledExpression.OR: return '|';
+            case CompiledExpression.XOR: return '^';
+            default: throw new IllegalStateException("Unknown opcode " + ops[i]);
+        }
+    }
+
+    /**
+     * Appends nodes in post-order, checking that every operator has
+     * its operands. Variables are numbered as they are first seen and
+     * renumbered into alphabetical slots when the tree is built
+     */
+    static final class Builder {
+        private byte[] ops;
+        private int[] child;
+        private int size;
+        private int[] stack = new int[16];
+        private int top = -1;
+        private final int[] letterIds = new int[128];
+        private final SymbolTable symbols = new SymbolTable();
+
+        Builder(int capacity) {
+            ops = new byte[Math.max(capacity, 16)];
+            child = new int[ops.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * appends a node
+         *
+         * @param c symbol of the node
+         * @param position position of the symbol, for errors
+         */
+        void add(char c, int position) {
+            byte op;
+            int operand = 0;
+
+            switch (c) {
+                case '0': op = CompiledExpression.FALSE; break;
+                case '1': op = CompiledExpression.TRUE; break;
+                case '!': op = CompiledExpression.NOT; break;
+                case '&': op = CompiledExpression.AND; break;
+                case '|': op = CompiledExpression.OR; break;
+                case '^': op = CompiledExpression.XOR; break;
+                default:
+                    if (!Character.isLetter(c)) {
+                        throw new ExpressionParseException("Unexpected character '" + c + "'", position);
+                    }
+                    op = CompiledExpression.LOAD;
+                    operand = idOf(c);
+                    break;
+            }
+
+            push(op, operand, c, position);
+        }
+
+        /**
+         * appends a variable node
+         *
+         * @param name variable name
+         * @param position position of the name, for errors
+         */
+        void addVariable(String name, int position) {
+            push(CompiledExpression.LOAD, symbols.intern(name), name.charAt(0), position);
+        }
+
+        /**
+         * appends a node after popping its operands off the stack
+         */
+        private void push(byte op, int operand, char c, int position) {
+            if (op == CompiledExpression.NOT) {
+                if (top < 0) {
+                    throw new ExpressionParseException("Missing operand for '!'", position);
+                }
+                top--;
+            }
+            else if (op >= CompiledExpression.AND) {
+                if (top < 1) {
+                    throw new ExpressionParseException("Missing operand for '" + c + "'", position);
+                }
+                operand = stack[top - 1];
+                top -= 2;
+            }
+
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                child = Arrays.copyOf(child, size * 2);
+            }
+            ops[size] = op;
+            child[size] = operand;
+
+            if (++top == stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top] = size++;
+        }
+
+        /**
+         * numbers a one letter variable the first time it is seen,
+         * ASCII letters are cached so they need no String
+         */
+        private int idOf(char c) {
+            if (c >= letterIds.length) {
+                return symbols.intern(String.valueOf(c));
+            }
+            if (letterIds[c] == 0) {
+                letterIds[c] = symbols.intern(String.valueOf(c)) + 1;
+            }
+            return letterIds[c] - 1;
+        }
+
+        /**
+         * finishes the tree
+         *
+         * @param position end of the input, for errors
+         * @return compact tree
+         */
+        CompactTree build(int position) {
+            if (top != 0) {
+                throw new ExpressionParseException(top < 0 ? "Empty expression"
+                        : (top + 1) + " operands are left without an operator", position);
+            }
+
+            String[] variables = symbols.toArray();
+            Arrays.sort(variables);
+
+            int[] slots = new int[variables.length];
+            for (int id = 0; id < slots.length; id++) {
+                slots[id] = Arrays.binarySearch(variables, symbols.nameOf(id));
+            }
+
+            byte[] finalOps = Arrays.copyOf(ops, size);
+            int[] finalChild = Arrays.copyOf(child, size);
+            for (int i = 0; i < size; i++) {
+                if (finalOps[i] == CompiledExpression.LOAD) {
+                    finalChild[i] = slots[finalChild[i]];
+                }
+            }
+
+            return new CompactTree(finalOps, finalChild, variables);
+        }
+    }
+}
@@ -0,0 +1,599 @@
+import java.util.*;
+
+/**
+ * Flat, postfix form of an expression tree. The tree is compiled once
+ * into a byte array of opcodes with a parallel int array of operand slots,
+ * and evaluated by a single loop over that array using a primitive
+ * boolean stack, so evaluation needs no recursion and no per-node calls.
+ *
+ * Variables are assigned dense slots in alphabetical order of their names,
+ * and are read from a boolean array indexed by slot.
+ *
+ */
+public final class CompiledExpression implements BooleanFunction {
+    static final byte FALSE = 0;
+    static final byte TRUE = 1;
+    static final byte LOAD = 2;
+    static final byte NOT = 3;
+    static final byte AND = 4;
+    static final byte OR = 5;
+    static final byte XOR = 6;
+    static final byte TEE = 7;
+    static final byte TEMP = 8;
+
+    private final byte[] code;
+    private final int[] operands;
+    private final String[] variables;
+    private final int maxDepth;
+    private final int tempCount;
+
+    /**
+     * constructor for an already built instruction stream
+     *
+     * @param code opcodes in postfix order
+     * @param operands operand slot for each opcode, used by LOAD, TEE and TEMP
+     * @param variables variable names indexed by slot
+     */
+    CompiledExpression(byte[] code, int[] operands, String[] variables) {
+        this.code = code;
+        this.operands = operands;
+        this.variables = variables;
+        this.maxDepth = stackDepth(code);
+        this.tempCount = tempCount(code, operands);
+    }
+
+    /**
+     * constructor for an instruction stream whose stack depth and
+     * temporaries are already known, as stored by ExpressionArchive
+     *
+     * @param code opcodes in postfix order
+     * @param operands operand slot for each opcode, used by LOAD, TEE and TEMP
+     * @param variables variable names indexed by slot
+     * @param maxDepth deepest stack the code reaches
+     * @param tempCount number of temporaries
+     */
+    CompiledExpression(byte[] code, int[] operands, String[] variables, int maxDepth, int tempCount) {
+        this.code = code;
+        this.operands = operands;
+        this.variables = variables;
+        this.maxDepth = maxDepth;
+        this.tempCount = tempCount;
+    }
+
+    /**
+     * compiles the tree below the given root into postfix instructions.
+     * The tree is walked with an explicit stack so deep trees do not
+     * overflow the call stack. Operator nodes that are shared by several
+     * parents, as built by NodeInterner, are compiled once: their value
+     * is kept in a temporary and read back wherever they are used again
+     *
+     * @param root root node of the expression tree
+     * @return compiled expression
+     */
+    public static CompiledExpression compile(TreeNode root) {
+        return compile(root, Collections.emptySet());
+    }
+
+    /**
+     * simplifies a tree with Simplifier and compiles the result. The
+     * variables of the original tree are kept, so an assignment binding
+     * them still fits where simplification removed one, as in a|!a
+     *
+     * @param root root node of the expression tree
+     * @return compiled form of the simplified tree
+     */
+    public static CompiledExpression compileSimplified(TreeNode root) {
+        if (root == null) {
+            throw new IllegalArgumentException("Cannot compile an empty expression tree");
+        }
+
+        return compile(Simplifier.simplify(root).getRoot(), variableNames(root));
+    }
+
+    /**
+     * collects the names of the variables in a tree
+     *
+     * @param root root node of the tree
+     * @return variable names
+     */
+    static Set<String> variableNames(TreeNode root) {
+        Set<String> names = new HashSet<>();
+        Set<TreeNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            TreeNode node = pending.pop();
+            if (Character.isLetter(node.getData())) {
+                names.add(node.getName());
+            }
+            for (TreeNode child : new TreeNode[] {node.getLeftNode(), node.getRightNode()}) {
+                if (child != null && seen.add(child)) {
+                    pending.push(child);
+                }
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * compiles a tree, giving slots to some variables which
+     * may not occur in it as well as to those which do
+     *
+     * @param root root node of the expression tree
+     * @param extraVariables further variable names
+     * @return compiled expression
+     */
+    static CompiledExpression compile(TreeNode root, Set<String> extraVariables) {
+        if (root == null) {
+            throw new IllegalArgumentException("Cannot compile an empty expression tree");
+        }
+
+        // count the parents of every distinct node and collect the variable names
+        IdentityHashMap<TreeNode, Integer> parents = new IdentityHashMap<>();
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        TreeSet<String> names = new TreeSet<>(extraVariables);
+
+        parents.put(root, 1);
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            TreeNode node = pending.pop();
+            if (Character.isLetter(node.getData())) {
+                names.add(node.getName());
+            }
+            for (TreeNode child : new TreeNode[] {node.getLeftNode(), node.getRightNode()}) {
+                if (child != null && parents.merge(child, 1, Integer::sum) == 1) {
+                    pending.push(child);
+                }
+            }
+        }
+
+        // each name is resolved to its slot once per node through the table
+        SymbolTable symbols = SymbolTable.sorted(names);
+        String[] variables = symbols.toArray();
+        Emitter out = new Emitter(parents.size());
+        IdentityHashMap<TreeNode, Integer> temps = new IdentityHashMap<>();
+        ArrayDeque<Boolean> expanded = new ArrayDeque<>();
+
+        // post-order walk, a node is emitted after both of its children
+        pending.push(root);
+        expanded.push(false);
+        while (!pending.isEmpty()) {
+            TreeNode node = pending.pop();
+
+            if (!expanded.pop()) {
+                Integer temp = temps.get(node);
+                if (temp != null) {
+                    out.emit(TEMP, temp);
+                    continue;
+                }
+
+                pending.push(node);
+                expanded.push(true);
+                if (node.getRightNode() != null) {
+                    pending.push(node.getRightNode());
+                    expanded.push(false);
+                }
+                if (node.getLeftNode() != null) {
+                    pending.push(node.getLeftNode());
+                    expanded.push(false);
+                }
+                continue;
+            }
+
+            char c = node.getData();
+            switch (c) {
+                case '0':
+                    out.emit(FALSE, 0);
+                    break;
+                case '1':
+                    out.emit(TRUE, 0);
+                    break;
+                case '!':
+                    out.emit(NOT, 0);
+                    break;
+                case '&':
+                    out.emit(AND, 0);
+                    break;
+                case '|':
+                    out.emit(OR, 0);
+                    break;
+                case '^':
+                    out.emit(XOR, 0);
+                    break;
+                default:
+                    if (!Character.isLetter(c)) {
+                        throw new IllegalArgumentException("Unsupported symbol in expression tree: " + c);
+                    }
+                    out.emit(LOAD, symbols.slotOf(node.getName()));
+                    break;
+            }
+
+            // leaves are as cheap to reload as a temporary, only operators are kept
+            if (parents.get(node) > 1 && (node.getLeftNode() != null || node.getRightNode() != null)) {
+                temps.put(node, temps.size());
+                out.emit(TEE, temps.size() - 1);
+            }
+        }
+
+        return new CompiledExpression(out.code(), out.operands(), variables);
+    }
+
+    /**
+     * computes the deepest the evaluation stack gets while running the code
+     *
+     * @param code opcodes in postfix order
+     * @return maximum stack depth
+     */
+    private static int stackDepth(byte[] code) {
+        int depth = 0;
+        int max = 0;
+
+        for (byte op : code) {
+            if (op == FALSE || op == TRUE || op == LOAD || op == TEMP) {
+                depth++;
+            }
+            else if (op == AND || op == OR || op == XOR) {
+                depth--;
+            }
+            max = Math.max(max, depth);
+        }
+
+        return max;
+    }
+
+    /**
+     * counts the temporaries used for shared subexpressions
+     *
+     * @param code opcodes in postfix order
+     * @param operands operand of each opcode
+     * @return number of temporaries
+     */
+    private static int tempCount(byte[] code, int[] operands) {
+        int count = 0;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            if (code[pc] == TEE) {
+                count = Math.max(count, operands[pc] + 1);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * evaluates the expression with the given variable values.
+     * When the stack and the temporaries each fit in a long they are
+     * kept in a register with one bit per entry, so nothing is allocated
+     *
+     * @param values variable values indexed by slot
+     * @return result of the expression
+     */
+    @Override
+    public boolean evaluate(boolean[] values) {
+        if (maxDepth > Long.SIZE || tempCount > Long.SIZE) {
+            return evaluateDeep(values);
+        }
+
+        long stack = 0L;
+        long temps = 0L;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case FALSE:
+                    stack <<= 1;
+                    break;
+                case TRUE:
+                    stack = (stack << 1) | 1L;
+                    break;
+                case LOAD:
+                    stack = (stack << 1) | (values[operands[pc]] ? 1L : 0L);
+                    break;
+                case NOT:
+                    stack ^= 1L;
+                    break;
+                case AND:
+                    stack = (stack >>> 1) & (stack | ~1L);
+                    break;
+                case OR:
+                    stack = (stack >>> 1) | (stack & 1L);
+                    break;
+                case XOR:
+                    stack = (stack >>> 1) ^ (stack & 1L);
+                    break;
+                case TEE:
+                    temps = (temps & ~(1L << operands[pc])) | ((stack & 1L) << operands[pc]);
+                    break;
+                case TEMP:
+                    stack = (stack << 1) | ((temps >>> operands[pc]) & 1L);
+                    break;
+            }
+        }
+
+        return (stack & 1L) != 0L;
+    }
+
+    /**
+     * evaluates the expression with the variable values packed in a
+     * long, slot i takes the value of bit i
+     *
+     * @param values packed variable values
+     * @return result of the expression
+     * @throws IllegalArgumentException if the expression has more than 64 variables
+     */
+    @Override
+    public boolean evaluate(long values) {
+        if (variables.length > Long.SIZE) {
+            throw new IllegalArgumentException("Expected at most " + Long.SIZE
+                    + " variables to pack in a long but the expression has " + variables.length);
+        }
+        if (maxDepth > Long.SIZE || tempCount > Long.SIZE) {
+            boolean[] unpacked = new boolean[variables.length];
+            for (int slot = 0; slot < unpacked.length; slot++) {
+                unpacked[slot] = ((values >>> slot) & 1L) != 0L;
+            }
+            return evaluateDeep(unpacked);
+        }
+
+        long stack = 0L;
+        long temps = 0L;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case FALSE:
+                    stack <<= 1;
+                    break;
+                case TRUE:
+                    stack = (stack << 1) | 1L;
+                    break;
+                case LOAD:
+                    stack = (stack << 1) | ((values >>> operands[pc]) & 1L);
+                    break;
+                case NOT:
+                    stack ^= 1L;
+                    break;
+                case AND:
+                    stack = (stack >>> 1) & (stack | ~1L);
+                    break;
+                case OR:
+                    stack = (stack >>> 1) | (stack & 1L);
+                    break;
+                case XOR:
+                    stack = (stack >>> 1) ^ (stack & 1L);
+                    break;
+                case TEE:
+                    temps = (temps & ~(1L << operands[pc])) | ((stack & 1L) << operands[pc]);
+                    break;
+                case TEMP:
+                    stack = (stack << 1) | ((temps >>> operands[pc]) & 1L);
+                    break;
+            }
+        }
+
+        return (stack & 1L) != 0L;
+    }
+
+    /**
+     * evaluates the expression with the values bound in an assignment
+     *
+     * @param assignment values created by newAssignment
+     * @return result of the expression
+     */
+    public boolean evaluate(Assignment assignment) {
+        if (!assignment.matches(variables)) {
+            throw new IllegalArgumentException("Assignment was created for a different set of variables");
+        }
+
+        return evaluate(assignment.values);
+    }
+
+    /**
+     * creates an assignment for the variables of this expression
+     *
+     * @return assignment with every variable false
+     */
+    public Assignment newAssignment() {
+        return new Assignment(variables);
+    }
+
+    /**
+     * evaluates expressions whose stack does not fit in a long
+     *
+     * @param values variable values indexed by slot
+     * @return result of the expression
+     */
+    private boolean evaluateDeep(boolean[] values) {
+        boolean[] stack = new boolean[maxDepth];
+        boolean[] temps = new boolean[tempCount];
+        int top = -1;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case FALSE:
+                    stack[++top] = false;
+                    break;
+                case TRUE:
+                    stack[++top] = true;
+                    break;
+                case LOAD:
+                    stack[++top] = values[operands[pc]];
+                    break;
+                case NOT:
+                    stack[top] = !stack[top];
+                    break;
+                case AND:
+                    top--;
+                    stack[top] = stack[top] & stack[top + 1];
+                    break;
+                case OR:
+                    top--;
+                    stack[top] = stack[top] | stack[top + 1];
+                    break;
+                case XOR:
+                    top--;
+                    stack[top] = stack[top] ^ stack[top + 1];
+                    break;
+                case TEE:
+                    temps[operands[pc]] = stack[top];
+                    break;
+                case TEMP:
+                    stack[++top] = temps[operands[pc]];
+                    break;
+            }
+        }
+
+        return stack[0];
+    }
+
+    /**
+     * evaluates the expression for 64 assignments at once. Every bit
+     * position of the value words is a separate assignment, and the
+     * operators are applied to whole words
+     *
+     * @param values one word of variable values per slot
+     * @param stack scratch stack from newWordStack, reused between calls,
+     *              which also holds the temporaries after the stack entries
+     * @return word holding the result for each bit position
+     */
+    public long evaluateWords(long[] values, long[] stack) {
+        int top = -1;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case FALSE:
+                    stack[++top] = 0L;
+                    break;
+                case TRUE:
+                    stack[++top] = -1L;
+                    break;
+                case LOAD:
+                    stack[++top] = values[operands[pc]];
+                    break;
+                case NOT:
+                    stack[top] = ~stack[top];
+                    break;
+                case AND:
+                    top--;
+                    stack[top] &= stack[top + 1];
+                    break;
+                case OR:
+                    top--;
+                    stack[top] |= stack[top + 1];
+                    break;
+                case XOR:
+                    top--;
+                    stack[top] ^= stack[top + 1];
+                    break;
+                case TEE:
+                    stack[maxDepth + operands[pc]] = stack[top];
+                    break;
+                case TEMP:
+                    stack[++top] = stack[maxDepth + operands[pc]];
+                    break;
+            }
+        }
+
+        return stack[0];
+    }
+
+    /**
+     * creates a scratch stack big enough for evaluateWords
+     *
+     * @return empty word stack
+     */
+    public long[] newWordStack() {
+        return new long[maxDepth + tempCount];
+    }
+
+    /**
+     * getter for the number of variables in the expression
+     *
+     * @return variable count
+     */
+    public int getVariableCount() {
+        return variables.length;
+    }
+
+    /**
+     * getter for the name of the variable in a slot
+     *
+     * @param slot variable slot
+     * @return variable name
+     */
+    public String getVariable(int slot) {
+        return variables[slot];
+    }
+
+    /**
+     * looks up the slot of a variable
+     *
+     * @param name variable name
+     * @return slot of the variable, or a negative number if it is not used
+     */
+    public int slotOf(String name) {
+        return Arrays.binarySearch(variables, name);
+    }
+
+    // raw access for code generators in this package, the arrays must not be changed
+    byte[] code() {
+        return code;
+    }
+
+    int[] operands() {
+        return operands;
+    }
+
+    String[] variables() {
+        return variables;
+    }
+
+    int maxDepth() {
+        return maxDepth;
+    }
+
+    int tempCount() {
+        return tempCount;
+    }
+
+    /**
+     * getter for the number of instructions
+     *
+     * @return instruction count
+     */
+    public int size() {
+        return code.length;
+    }
+
+    /**
+     * Growable instruction buffer used while compiling
+     */
+    private static final class Emitter {
+        private byte[] code;
+        private int[] operands;
+        private int size;
+
+        Emitter(int capacity) {
+            code = new byte[Math.max(capacity, 1)];
+            operands = new int[code.length];
+        }
+
+        void emit(byte op, int operand) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+                operands = Arrays.copyOf(operands, size * 2);
+            }
+            code[size] = op;
+            operands[size] = operand;
+            size++;
+        }
+
+        byte[] code() {
+            return Arrays.copyOf(code, size);
+        }
+
+        int[] operands() {
+            return Arrays.copyOf(operands, size);
+        }
+    }
+}
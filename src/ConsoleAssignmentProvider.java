@@ -0,0 +1,60 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Interactive source of variable values which asks the
+ * user for each variable until a valid value is entered
+ *
+ */
+public class ConsoleAssignmentProvider implements AssignmentProvider {
+    private static ConsoleAssignmentProvider systemIn;
+
+    private final Scanner in;
+    private final PrintStream out;
+
+    /**
+     * constructor to prompt on the given console
+     *
+     * @param in scanner reading the user's answers
+     * @param out stream the prompts are printed to
+     */
+    public ConsoleAssignmentProvider(Scanner in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * getter for the provider reading System.in, which is shared so
+     * that only one Scanner ever buffers the standard input
+     *
+     * @return console provider for System.in and System.out
+     */
+    public static synchronized ConsoleAssignmentProvider systemIn() {
+        if (systemIn == null) {
+            systemIn = new ConsoleAssignmentProvider(new Scanner(System.in), System.out);
+        }
+
+        return systemIn;
+    }
+
+    /**
+     * grab the value of a variable from the user, which can
+     * only be 1 or 0, and keep asking until it is one of them
+     *
+     * @param variable variable in the expression
+     * @return true for 1, false for 0
+     */
+    @Override
+    public boolean valueOf(String variable) {
+        out.println("Enter a value ('0' or '1') for variable:" + variable);
+        String inp = in.nextLine().trim();
+
+        while (!inp.equals("0") && !inp.equals("1")) {
+            out.println("The number you have entered is invalid.");
+            out.println("Please enter '0' or '1': ");
+            inp = in.nextLine().trim();
+        }
+
+        return inp.equals("1");
+    }
+}
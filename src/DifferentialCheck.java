@@ -0,0 +1,712 @@
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks every evaluation path of the project against a plain reference
+ * evaluator, over every assignment of the variables.
+ *
+ * First each operator is checked against its truth table written out
+ * by hand, so a broken operator such as an &amp; which is true for 0&amp;0
+ * is caught on its own. Then random trees from ExpressionGenerator are
+ * evaluated through the tree, the interpreter, the generated bytecode,
+ * the truth table, the BDD, the short-circuit and streaming evaluators,
+ * the columnar filter with its scalar and vector backends, the compact
+ * tree, the simplified tree, the simplified expressions built by
+ * Expression.parseInfix and parsePostfix and the infix and postfix
+ * round trips, and every result is compared with the reference. The
+ * answers of the SAT solver are compared with the number of rows the
+ * reference makes true, and its models are checked against the
+ * reference too.
+ *
+ * One Expression is also evaluated by many threads at once, with the
+ * switch to generated code happening in the middle, and the cache is
+ * checked to keep apart expressions which differ only in whitespace.
+ * ParallelEvaluator runs balanced and skewed trees in a pool of its
+ * own, with thresholds of 1 to 64 nodes so they are split into many
+ * tasks. IncrementalEvaluator is given random sequences of sets and its
+ * value is compared with a full evaluation after each one. Generated
+ * trees are written to an ExpressionArchive and read back by position
+ * and by key, and a record with one flipped byte must fail on its own.
+ * The columnar filter is run over random columns of up to more than
+ * PARALLEL_THRESHOLD words, so the chunked and parallel paths and the
+ * vector loops are compared with the interpreter too. Bracketed names
+ * are streamed, and their errors are compared with those of
+ * PostfixParser.
+ *
+ * ExpressionBenchmark runs this before measuring, so a fast but wrong
+ * change never produces numbers.
+ *
+ */
+public final class DifferentialCheck {
+    /** expected results of a op b, indexed by a * 2 + b */
+    private static final Map<Character, boolean[]> TABLES = Map.of(
+        '&', new boolean[] {false, false, false, true},
+        '|', new boolean[] {false, true, true, true},
+        '^', new boolean[] {false, true, true, false});
+
+    private final List<String> failures = new ArrayList<>();
+
+    private DifferentialCheck() {
+    }
+
+    /**
+     * main method to run the check with the default settings
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        List<String> failures = run(1L, 200);
+
+        for (String failure : failures) {
+            System.out.println(failure);
+        }
+        System.out.println(failures.isEmpty() ? "All checks passed" : failures.size() + " check(s) failed");
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * runs the operator tables and then random trees of every shape
+     *
+     * @param seed seed of the generated trees
+     * @param trees number of random trees per shape
+     * @return description of every mismatch, empty if all agree
+     */
+    public static List<String> run(long seed, int trees) {
+        DifferentialCheck check = new DifferentialCheck();
+        check.checkOperators();
+        check.expect("empty tree simplified", new ExpressionTree().simplify().getNodesAfter() == 0, true);
+        check.checkCache();
+        check.checkStreamingNames();
+        check.checkWideExpression();
+        check.checkConcurrentEvaluation(seed);
+        check.checkParallelEvaluation(seed);
+        check.checkIncrementalEvaluation(seed);
+        check.checkArchive(seed);
+        check.checkColumnFilter(seed);
+
+        // long names in every notation
+        check.checkTree(InfixParser.parse("(sensor_17 & !valve_2) | sensor_17 ^ (x1 | !Pump)"));
+        check.checkTree(new ExpressionTree("[sensor_17]b&[valve_2]!|").freeze().toTreeNode());
+
+        for (ExpressionGenerator.Shape shape : ExpressionGenerator.Shape.values()) {
+            ExpressionGenerator generator = new ExpressionGenerator(seed, 6, 6).setShape(shape);
+            for (int i = 0; i < trees && check.failures.size() < 20; i++) {
+                check.checkTree(generator.nextTree());
+            }
+        }
+
+        return check.failures;
+    }
+
+    /**
+     * checks each operator on constants and on variables
+     */
+    private void checkOperators() {
+        for (Map.Entry<Character, boolean[]> table : TABLES.entrySet()) {
+            char op = table.getKey();
+            ExpressionTree variables = new ExpressionTree("ab" + op);
+
+            for (int row = 0; row < 4; row++) {
+                boolean a = row >= 2;
+                boolean b = (row & 1) != 0;
+                boolean expected = table.getValue()[row];
+                String constants = "" + (a ? '1' : '0') + (b ? '1' : '0') + op;
+
+                expect(constants, new ExpressionTree(constants).evaluate(new ExpressionTree(constants).newAssignment()),
+                        expected);
+                expect("ab" + op + " with a=" + a + " b=" + b,
+                        variables.evaluate(variables.newAssignment().set("a", a).set("b", b)), expected);
+            }
+        }
+
+        expect("0!", new ExpressionTree("0!").evaluate(new ExpressionTree("0!").newAssignment()), true);
+        expect("1!", new ExpressionTree("1!").evaluate(new ExpressionTree("1!").newAssignment()), false);
+    }
+
+    /**
+     * checks that the cache only folds whitespace which does not change
+     * the expression, and parses the text as it was written
+     */
+    private void checkCache() {
+        ExpressionCache<CompiledExpression> cache = ExpressionCache.forInfix(16);
+
+        for (String infix : List.of("a b", "a & b c")) {
+            expect("cache " + infix + " rejected", fails(() -> cache.get(infix)),
+                    fails(() -> ExpressionTree.fromInfix(infix)));
+        }
+
+        CompiledExpression joined = cache.get("a & bc");
+        expect("cache a & bc names", joined.getVariableCount() == 2 && joined.getVariable(1).equals("bc"), true);
+        expect("cache a&bc shares a & bc", cache.get("a&bc") == joined, true);
+
+        // simplification may drop a variable, the slots must stay
+        CompiledExpression dropped = cache.get("b & (a | !a)");
+        expect("cache b & (a | !a) names", dropped.getVariableCount() == 2, true);
+        expect("cache b & (a | !a)", dropped.evaluate(0b10L) && !dropped.evaluate(0b01L), true);
+        Expression tautology = Expression.parsePostfix("aa!|b&");
+        expect("parsed aa!|b&", tautology.evaluate(tautology.newAssignment().set("a", false).set("b", true)), true);
+    }
+
+    /**
+     * checks that the streaming evaluator reads bracketed names like
+     * the parser does, and reports where they are not allowed or invalid
+     */
+    private void checkStreamingNames() {
+        Map<String, Boolean> env = Map.of("ab", true, "c", true);
+        expect("streaming named [ab]c&", StreamingEvaluator.evaluateNamed(" [ab] c &", env::get).getValue(), true);
+
+        StreamingEvaluator.Result letters = StreamingEvaluator.evaluate("[ab]c&", c -> true);
+        expect("streaming [ab]c& " + letters, !letters.isValid() && letters.getError().contains("evaluateNamed"),
+                true);
+
+        for (String postfix : List.of("a[1b]&", "a[]&", "a[b c]&", "a[bc")) {
+            StreamingEvaluator.Result streamed = StreamingEvaluator.evaluateNamed(postfix, n -> true);
+            PostfixParser.Result parsed = PostfixParser.parse(postfix);
+            expect("streaming named " + postfix + " " + streamed, !streamed.isValid() && !parsed.isValid()
+                    && streamed.getErrorPosition() == parsed.getPosition(), true);
+        }
+    }
+
+    /**
+     * checks that an expression with more variables than a long holds
+     * rejects packed values as an argument error and still evaluates
+     * from an array
+     */
+    private void checkWideExpression() {
+        StringJoiner infix = new StringJoiner(" & ");
+        for (int i = 0; i <= Long.SIZE; i++) {
+            infix.add("v" + i);
+        }
+        CompiledExpression wide = CompiledExpression.compile(InfixParser.parse(infix.toString()));
+
+        boolean rejected;
+        try {
+            wide.evaluate(-1L);
+            rejected = false;
+        }
+        catch (IllegalArgumentException e) {
+            rejected = e.getMessage().contains(String.valueOf(wide.getVariableCount()));
+        }
+        expect("65 variables packed in a long rejected", rejected, true);
+
+        boolean[] values = new boolean[wide.getVariableCount()];
+        Arrays.fill(values, true);
+        expect("65 variables from an array", wide.evaluate(values), true);
+    }
+
+    private static boolean fails(Runnable parse) {
+        try {
+            parse.run();
+            return false;
+        }
+        catch (ExpressionParseException e) {
+            return true;
+        }
+    }
+
+    /**
+     * evaluates one Expression from platform threads, and virtual threads
+     * when the JDK has them, each with its own Assignment. Every thread
+     * runs DEFAULT_THRESHOLD evaluations, so the switch to generated code
+     * happens while the others are evaluating
+     */
+    private void checkConcurrentEvaluation(long seed) {
+        TreeNode root = new ExpressionGenerator(seed, 8, 6).nextTree();
+        Expression exp = Expression.of(root);
+        Assignment names = exp.newAssignment();
+        int rows = 1 << names.size();
+
+        boolean[] expected = new boolean[rows];
+        for (int row = 0; row < rows; row++) {
+            Map<String, Boolean> env = new HashMap<>();
+            for (int slot = 0; slot < names.size(); slot++) {
+                env.put(names.getVariable(slot), ((row >>> slot) & 1) != 0);
+            }
+            expected[row] = reference(root, env);
+        }
+
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        CountDownLatch start = new CountDownLatch(1);
+        Queue<String> mismatches = new ConcurrentLinkedQueue<>();
+        List<Thread> started = new ArrayList<>();
+
+        Runnable worker = () -> {
+            Assignment assignment = exp.newAssignment();
+            try {
+                start.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (int i = 0; i < TieredFunction.DEFAULT_THRESHOLD; i++) {
+                int row = i % rows;
+                if (exp.evaluate(assignment.setBits(row)) != expected[row] && mismatches.size() < 10) {
+                    mismatches.add(exp + " row " + row + " on " + Thread.currentThread());
+                }
+            }
+        };
+
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(worker);
+            thread.start();
+            started.add(thread);
+        }
+
+        // Thread.startVirtualThread is only there from JDK 21
+        try {
+            Method startVirtual = Thread.class.getMethod("startVirtualThread", Runnable.class);
+            for (int i = 0; i < threads; i++) {
+                started.add((Thread) startVirtual.invoke(null, worker));
+            }
+        }
+        catch (NoSuchMethodException e) {
+            // platform threads only
+        }
+        catch (ReflectiveOperationException e) {
+            failures.add("Could not start virtual threads: " + e);
+        }
+
+        start.countDown();
+        for (Thread thread : started) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.add("Interrupted while waiting for the evaluating threads");
+                return;
+            }
+        }
+
+        failures.addAll(mismatches);
+        expect(exp + " switched to generated code", exp.isCompiled(), true);
+    }
+
+    /**
+     * checks the fork/join evaluator on balanced and skewed trees with
+     * thresholds small enough that every tree is split into many tasks
+     */
+    private void checkParallelEvaluation(long seed) {
+        List<TreeNode> roots = new ArrayList<>();
+        roots.add(new ExpressionGenerator(seed, 10, 8).setShape(ExpressionGenerator.Shape.BALANCED).nextTree());
+        roots.add(new ExpressionGenerator(seed, 10, 8).setShape(ExpressionGenerator.Shape.RANDOM).nextTree());
+        roots.add(new ExpressionGenerator(seed, 300, 8).setShape(ExpressionGenerator.Shape.DEGENERATE).nextTree());
+
+        // a spine whose siblings are subtrees of their own, so tasks are forked along it
+        ExpressionGenerator siblings = new ExpressionGenerator(seed, 5, 8).setShape(ExpressionGenerator.Shape.BALANCED);
+        TreeNode spine = siblings.nextTree();
+        for (int i = 0; i < 40; i++) {
+            char op = "&|^".charAt(i % 3);
+            spine = i % 2 == 0 ? new TreeNode(op, spine, siblings.nextTree())
+                    : new TreeNode(op, siblings.nextTree(), spine);
+        }
+        roots.add(spine);
+
+        Random random = new Random(seed);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (TreeNode root : roots) {
+                CompactTree compact = CompactTree.of(root);
+                for (int threshold : new int[] {1, 2, 7, 64}) {
+                    ParallelEvaluator parallel = new ParallelEvaluator(compact, pool, threshold);
+                    for (int i = 0; i < 16; i++) {
+                        Assignment assignment = compact.newAssignment().setBits(random.nextLong());
+                        Map<String, Boolean> env = new HashMap<>();
+                        for (int slot = 0; slot < assignment.size(); slot++) {
+                            env.put(assignment.getVariable(slot), assignment.get(slot));
+                        }
+                        expect("parallel " + compact.size() + " nodes threshold " + threshold + " values "
+                                + env, parallel.evaluate(assignment), reference(root, env));
+                    }
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * checks the incremental evaluator through random sequences of sets,
+     * comparing its value with a full evaluation after every one
+     */
+    private void checkIncrementalEvaluation(long seed) {
+        Random random = new Random(seed);
+        ExpressionGenerator generator = new ExpressionGenerator(seed, 8, 6);
+        List<TreeNode> roots = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            roots.add(generator.nextTree());
+        }
+        // a shared DAG, where one node has several changed children
+        roots.add(PostfixParser.parse(new ExpressionTree(generator.nextTree()).getPostfixExp(), new NodeInterner())
+                .getRoot());
+
+        for (TreeNode root : roots) {
+            IncrementalEvaluator incremental = new IncrementalEvaluator(root);
+            String postfix = new ExpressionTree(root).getPostfixExp();
+            int n = incremental.getVariableCount();
+            Map<String, Boolean> env = new HashMap<>();
+            for (int slot = 0; slot < n; slot++) {
+                env.put(incremental.getVariable(slot), false);
+            }
+            int[] flips = {0};
+            incremental.addListener((variable, value) -> flips[0]++);
+
+            boolean previous = reference(root, env);
+            expect("incremental " + postfix + " initial", incremental.getValue(), previous);
+            int expectedFlips = 0;
+
+            for (int i = 0; i < 200; i++) {
+                int slot = random.nextInt(n);
+                String name = incremental.getVariable(slot);
+                boolean v = random.nextBoolean();
+                boolean returned = i % 2 == 0 ? incremental.set(name, v) : incremental.set(slot, v);
+                env.put(name, v);
+
+                boolean expected = reference(root, env);
+                String label = "incremental " + postfix + " after " + name + "=" + v + " at step " + i;
+                expect(label, incremental.getValue(), expected);
+                expect(label + " returned", returned, expected);
+                if (expected != previous) {
+                    expectedFlips++;
+                    previous = expected;
+                }
+            }
+
+            expect("incremental " + postfix + " listener calls", flips[0] == expectedFlips, true);
+        }
+    }
+
+    /**
+     * filters random columns of many words, so the chunk loop, the reuse
+     * of the buffers between calls and the parallel path are all run.
+     * The row counts are not all multiples of 64 or of the vector lanes
+     * and reach past a vector tile, CHUNK_WORDS and PARALLEL_THRESHOLD
+     * words. The result of the scalar loops, and of the Vector API
+     * backend when it is available, is compared word by word with the
+     * interpreter and at random rows with the reference
+     */
+    private void checkColumnFilter(long seed) {
+        List<TreeNode> roots = new ArrayList<>();
+        ExpressionGenerator generator = new ExpressionGenerator(seed, 6, 8);
+        for (int i = 0; i < 4; i++) {
+            roots.add(generator.nextTree());
+        }
+        roots.add(new ExpressionGenerator(seed, 40, 8).setShape(ExpressionGenerator.Shape.DEGENERATE).nextTree());
+        // shared subexpressions compile to TEE and TEMP
+        roots.add(PostfixParser.parse(new ExpressionTree(generator.nextTree()).getPostfixExp(), new NodeInterner())
+                .getRoot());
+        roots.add(InfixParser.parse("!(a & 1) | b ^ 0"));
+
+        int chunkRows = ColumnFilter.CHUNK_WORDS * 64;
+        int parallelRows = ColumnFilter.PARALLEL_THRESHOLD * 64;
+        // the vector backend works through a chunk in tiles of 256 words
+        int[] rowCounts = {1, 63, 64, 100, 512, 64 * 13 + 17, 64 * 256, 64 * 259 + 5, chunkRows,
+            chunkRows + 64 * 3 + 9, 2 * chunkRows - 1, parallelRows, parallelRows + 64 * 5 + 33};
+
+        Random random = new Random(seed);
+        long[][] data = new long[8][(rowCounts[rowCounts.length - 1] + 63) >>> 6];
+        for (long[] column : data) {
+            for (int w = 0; w < column.length; w++) {
+                column[w] = random.nextLong();
+            }
+        }
+
+        for (TreeNode root : roots) {
+            CompiledExpression compiled = CompiledExpression.compile(root);
+            long[][] columns = Arrays.copyOf(data, compiled.getVariableCount());
+            ColumnFilter scalar = new ColumnFilter(compiled, false);
+            ColumnFilter vector = ColumnFilter.isVectorAvailable() ? new ColumnFilter(compiled, true) : null;
+            String postfix = new ExpressionTree(root).getPostfixExp();
+
+            // one filter for every row count, so its buffers are reused between calls
+            for (int rows : rowCounts) {
+                long[] expected = filterWords(compiled, columns, rows);
+                String label = "filter " + postfix + " " + rows + " rows";
+                expectSame(label + " scalar", scalar.filter(columns, rows), expected);
+                if (vector != null) {
+                    expectSame(label + " vector", vector.filter(columns, rows), expected);
+                }
+
+                for (int k = 0; k < 8; k++) {
+                    int row = random.nextInt(rows);
+                    Map<String, Boolean> env = new HashMap<>();
+                    for (int slot = 0; slot < columns.length; slot++) {
+                        env.put(compiled.getVariable(slot), (columns[slot][row >>> 6] & (1L << row)) != 0);
+                    }
+                    expect(label + " row " + row, (expected[row >>> 6] & (1L << row)) != 0, reference(root, env));
+                }
+            }
+        }
+    }
+
+    /**
+     * filters columns one word at a time with the interpreter
+     */
+    private static long[] filterWords(CompiledExpression compiled, long[][] columns, int rows) {
+        long[] result = new long[(rows + 63) >>> 6];
+        long[] values = new long[columns.length];
+        long[] stack = compiled.newWordStack();
+
+        for (int w = 0; w < result.length; w++) {
+            for (int slot = 0; slot < columns.length; slot++) {
+                values[slot] = columns[slot][w];
+            }
+            result[w] = compiled.evaluateWords(values, stack);
+        }
+        if ((rows & 63) != 0) {
+            result[result.length - 1] &= (1L << rows) - 1;
+        }
+
+        return result;
+    }
+
+    private void expectSame(String label, long[] actual, long[] expected) {
+        int mismatch = Arrays.mismatch(actual, expected);
+        if (mismatch >= 0) {
+            failures.add(label + ": first difference at word " + mismatch);
+        }
+    }
+
+    /**
+     * writes generated trees to an archive file and reads them back,
+     * then damages one record and checks that only it fails to load
+     */
+    private void checkArchive(long seed) {
+        ExpressionGenerator generator = new ExpressionGenerator(seed, 6, 6);
+        List<TreeNode> roots = new ArrayList<>();
+        ExpressionArchive.Writer writer = new ExpressionArchive.Writer();
+        for (int i = 0; i < 30; i++) {
+            TreeNode root = generator.nextTree();
+            roots.add(root);
+            // every third one without a key
+            writer.add(i % 3 == 0 ? null : "rule_" + i, CompactTree.of(root));
+        }
+
+        Path file = null;
+        try {
+            file = Files.createTempFile("differential", ".expa");
+            writer.write(file);
+
+            Random random = new Random(seed);
+            try (ExpressionArchive archive = ExpressionArchive.open(file)) {
+                expect("archive size", archive.size() == roots.size(), true);
+                for (int i = 0; i < roots.size(); i++) {
+                    CompactTree stored = archive.get(i);
+                    TreeNode root = roots.get(i);
+                    String postfix = CompactTree.of(root).getPostfixExp();
+                    expect("archive " + i + " postfix", stored.getPostfixExp().equals(postfix), true);
+                    expect("archive " + i + " key", Objects.equals(archive.getKey(i), i % 3 == 0 ? null : "rule_" + i),
+                            true);
+                    if (i % 3 != 0) {
+                        expect("archive indexOf rule_" + i, archive.indexOf("rule_" + i) == i, true);
+                    }
+
+                    for (int k = 0; k < 8; k++) {
+                        Assignment assignment = stored.newAssignment().setBits(random.nextLong());
+                        Map<String, Boolean> env = new HashMap<>();
+                        for (int slot = 0; slot < assignment.size(); slot++) {
+                            env.put(assignment.getVariable(slot), assignment.get(slot));
+                        }
+                        expect("archive " + postfix + " values " + env, stored.evaluate(assignment),
+                                reference(root, env));
+                    }
+                }
+                expect("archive indexOf missing key", archive.indexOf("rule_0") == -1, true);
+            }
+
+            // turn one & of a record into | by flipping a byte, which leaves the
+            // record well formed so only its checksum can tell
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+            int indexOffset = (int) bytes.getLong(24);
+            int damaged = -1;
+            for (int i = roots.size() / 2; i < roots.size() && damaged < 0; i++) {
+                int record = (int) bytes.getLong(indexOffset + i * 20);
+                int nodes = bytes.getInt(record);
+                int code = record + 12 + 4 * bytes.getInt(record + 4) + 4 * nodes;
+                for (int k = 0; k < nodes && damaged < 0; k++) {
+                    if (bytes.get(code + k) == CompiledExpression.AND) {
+                        bytes.put(code + k, CompiledExpression.OR);
+                        damaged = i;
+                    }
+                }
+            }
+            expect("archive has a record with an &", damaged >= 0, true);
+            Files.write(file, bytes.array());
+
+            try (ExpressionArchive archive = ExpressionArchive.open(file)) {
+                for (int i = 0; i < roots.size(); i++) {
+                    boolean failed;
+                    try {
+                        archive.get(i);
+                        failed = false;
+                    }
+                    catch (UncheckedIOException e) {
+                        failed = true;
+                    }
+                    expect("archive with record " + damaged + " damaged, record " + i + " fails", failed,
+                            i == damaged);
+                }
+            }
+        }
+        catch (IOException e) {
+            failures.add("archive: " + e);
+        }
+        finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                }
+                catch (IOException e) {
+                    // left in the temporary directory
+                }
+            }
+        }
+    }
+
+    /**
+     * checks every evaluation path of one tree over all assignments
+     */
+    private void checkTree(TreeNode root) {
+        ExpressionTree tree = new ExpressionTree(root);
+        String postfix = tree.getPostfixExp();
+        CompiledExpression compiled = tree.compile();
+        BooleanFunction bytecode = BytecodeCompiler.compile(compiled);
+        TruthTable table = tree.truthTable();
+        Bdd bdd = Bdd.forTrees(Bdd.Order.FIRST_OCCURRENCE, root);
+        int f = bdd.build(root);
+        ShortCircuitEvaluator shortCircuit = tree.newShortCircuitEvaluator(true);
+        ExpressionTree infix = ExpressionTree.fromInfix(tree.getInfixExp(true));
+        ExpressionTree reparsed = new ExpressionTree(postfix, true);
+        TreeNode simplified = Simplifier.simplify(root).getRoot();
+        // simplified in place after the assignment exists, which must still fit
+        ExpressionTree simplifiedTree = new ExpressionTree(root);
+        Assignment beforeSimplify = simplifiedTree.newAssignment();
+        simplifiedTree.simplify();
+        Expression parsedInfix = Expression.parseInfix(tree.getInfixExp(true));
+        Expression parsedPostfix = Expression.parsePostfix(postfix);
+        CompactTree compact = CompactTree.of(root);
+
+        int n = compiled.getVariableCount();
+        int rows = 1 << n;
+        Map<String, long[]> columns = new HashMap<>();
+        for (int slot = 0; slot < n; slot++) {
+            long[] column = new long[(rows + 63) >>> 6];
+            for (int row = 0; row < rows; row++) {
+                if (((row >>> slot) & 1) != 0) {
+                    column[row >>> 6] |= 1L << row;
+                }
+            }
+            columns.put(compiled.getVariable(slot), column);
+        }
+        long[] filtered = tree.filter(columns, rows);
+        long[] scalarFiltered = new ColumnFilter(compiled, false).filter(columns, rows);
+        int satisfying = 0;
+
+        for (int row = 0; row < rows; row++) {
+            final int r = row;
+            Map<String, Boolean> env = new HashMap<>();
+            for (int slot = 0; slot < n; slot++) {
+                env.put(compiled.getVariable(slot), ((row >>> slot) & 1) != 0);
+            }
+            AssignmentProvider provider = env::get;
+            boolean expected = reference(root, env);
+            String label = postfix + " row " + row;
+            if (expected) {
+                satisfying++;
+            }
+
+            expect(label + " tree", tree.evaluate(tree.newAssignment().setBits(row)), expected);
+            expect(label + " interpreter", compiled.evaluate((long) row), expected);
+            expect(label + " bytecode", bytecode.evaluate((long) row), expected);
+            expect(label + " truth table", table.get(row), expected);
+            expect(label + " bdd", bdd.evaluate(f, provider), expected);
+            expect(label + " short circuit", shortCircuit.evaluate(provider), expected);
+            if (postfix.indexOf('[') < 0) {
+                boolean streamed = StreamingEvaluator.evaluate(postfix, c -> env.get(String.valueOf((char) c)))
+                        .getValue();
+                expect(label + " streaming", streamed, expected);
+            }
+            expect(label + " streaming named", StreamingEvaluator.evaluateNamed(postfix, env::get).getValue(),
+                    expected);
+            expect(label + " compact", compact.evaluate((long) row), expected);
+            expect(label + " filter", (filtered[r >>> 6] & (1L << r)) != 0, expected);
+            expect(label + " scalar filter", (scalarFiltered[r >>> 6] & (1L << r)) != 0, expected);
+            expect(label + " infix round trip", infix.evaluate(provider), expected);
+            expect(label + " postfix round trip", reparsed.evaluate(provider), expected);
+            expect(label + " simplified", reference(simplified, env), expected);
+            expect(label + " simplified in place", simplifiedTree.evaluate(beforeSimplify.setBits(row)), expected);
+            expect(label + " parsed infix", parsedInfix.evaluate((long) row), expected);
+            expect(label + " parsed postfix", parsedPostfix.evaluate(parsedPostfix.newAssignment().fill(provider)),
+                    expected);
+        }
+
+        expect(postfix + " satisfiable", tree.isSatisfiable(), satisfying > 0);
+        expect(postfix + " tautology", tree.isTautology(), satisfying == rows);
+        Assignment model = tree.findSatisfyingAssignment();
+        expect(postfix + " model found", model != null, satisfying > 0);
+        if (model != null) {
+            Map<String, Boolean> env = new HashMap<>();
+            for (int slot = 0; slot < n; slot++) {
+                env.put(model.getVariable(slot), model.get(slot));
+            }
+            expect(postfix + " model", reference(root, env), true);
+        }
+    }
+
+    private void expect(String label, boolean actual, boolean expected) {
+        if (actual != expected) {
+            failures.add(label + ": expected " + expected + " but got " + actual);
+        }
+    }
+
+    /**
+     * evaluates a tree node by node with the hand written operator tables
+     *
+     * @param root root node of the tree
+     * @param env value of each variable
+     * @return result of the expression
+     */
+    static boolean reference(TreeNode root, Map<String, Boolean> env) {
+        IdentityHashMap<TreeNode, Boolean> done = new IdentityHashMap<>();
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            TreeNode n = pending.peek();
+            TreeNode left = n.getLeftNode();
+            TreeNode right = n.getRightNode();
+
+            if (left != null && !done.containsKey(left)) {
+                pending.push(left);
+            }
+            else if (right != null && !done.containsKey(right)) {
+                pending.push(right);
+            }
+            else {
+                pending.pop();
+                char c = n.getData();
+                boolean value;
+                if (c == '!') {
+                    value = !done.get(right);
+                }
+                else if (TABLES.containsKey(c)) {
+                    value = TABLES.get(c)[(done.get(left) ? 2 : 0) + (done.get(right) ? 1 : 0)];
+                }
+                else {
+                    value = c == '1' || (c != '0' && env.get(n.getName()));
+                }
+                done.put(n, value);
+            }
+        }
+
+        return done.get(root);
+    }
+}
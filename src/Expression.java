@@ -0,0 +1,311 @@
+import java.util.*;
+
+/**
+ * Immutable, thread-safe form of an expression tree. The nodes have
+ * final fields and no setters, and the expression keeps no console or
+ * cache. The variable values are passed in on every call, so one parsed
+ * expression can be evaluated by any number of threads at once without
+ * locking.
+ *
+ * The only state that changes during evaluation is in its TieredFunction:
+ * a call counter which is not synchronized, and the generated bytecode,
+ * which is set once under a lock when the counter reaches the threshold
+ * and read through a volatile field. Racing threads can only shift when
+ * the switch happens, every call gets the same result either way.
+ *
+ * parseInfix and parsePostfix simplify the parsed tree with Simplifier
+ * before compiling it, while of keeps the tree it is given. Variables
+ * which simplification removes keep their slots, so an assignment
+ * written for the parsed text still fits.
+ *
+ * Every thread should bind its values in its own Assignment, created
+ * with newAssignment.
+ *
+ */
+public final class Expression {
+    private final Node root;
+    private final CompiledExpression compiled;
+    private final TieredFunction function;
+
+    /**
+     * constructor for an already copied tree
+     *
+     * @param root root of the immutable tree
+     * @param compiled compiled form of the same tree
+     */
+    private Expression(Node root, CompiledExpression compiled) {
+        this.root = root;
+        this.compiled = compiled;
+        this.function = new TieredFunction(compiled);
+    }
+
+    /**
+     * creates an immutable expression from a tree, the tree
+     * is copied so later changes to it are not seen
+     *
+     * @param tree root node of the tree
+     * @return immutable expression
+     */
+    public static Expression of(TreeNode tree) {
+        return of(tree, Collections.emptySet());
+    }
+
+    /**
+     * creates an immutable expression from a tree, giving slots to
+     * some variables which may not occur in it as well
+     *
+     * @param tree root node of the tree
+     * @param extraVariables further variable names
+     * @return immutable expression
+     */
+    static Expression of(TreeNode tree, Set<String> extraVariables) {
+        if (tree == null) {
+            throw new IllegalArgumentException("Cannot create an expression from an empty tree");
+        }
+
+        return new Expression(copy(tree), CompiledExpression.compile(tree, extraVariables));
+    }
+
+    /**
+     * parses an infix expression
+     *
+     * @param infixExp infix expression
+     * @return immutable expression
+     * @throws ExpressionParseException if the expression is invalid
+     */
+    public static Expression parseInfix(String infixExp) {
+        return simplified(InfixParser.parse(infixExp));
+    }
+
+    /**
+     * parses a postfix expression
+     *
+     * @param postfixExp postfix expression
+     * @return immutable expression
+     * @throws ExpressionParseException if the expression is invalid
+     */
+    public static Expression parsePostfix(String postfixExp) {
+        return simplified(PostfixParser.parseOrThrow(postfixExp));
+    }
+
+    /**
+     * creates an expression from the simplified form of a parsed tree,
+     * keeping every variable of the tree in its assignments
+     */
+    private static Expression simplified(TreeNode tree) {
+        TreeNode simple = Simplifier.simplify(tree).getRoot();
+        return new Expression(copy(simple), CompiledExpression.compile(simple, CompiledExpression.variableNames(tree)));
+    }
+
+    /**
+     * creates an assignment for the variables of this expression,
+     * which holds the per thread state of an evaluation
+     *
+     * @return assignment with every variable false
+     */
+    public Assignment newAssignment() {
+        return compiled.newAssignment();
+    }
+
+    /**
+     * evaluates the expression with the values bound in an assignment
+     *
+     * @param assignment values created by newAssignment
+     * @return result of the expression
+     */
+    public boolean evaluate(Assignment assignment) {
+        return function.evaluate(assignment);
+    }
+
+    /**
+     * evaluates the expression with the given variable values
+     *
+     * @param values variable values indexed by slot
+     * @return result of the expression
+     */
+    public boolean evaluate(boolean[] values) {
+        return function.evaluate(values);
+    }
+
+    /**
+     * evaluates the expression for up to 64 variables,
+     * slot i takes the value of bit i
+     *
+     * @param values packed variable values
+     * @return result of the expression
+     * @throws IllegalArgumentException if the expression has more than 64 variables
+     */
+    public boolean evaluate(long values) {
+        return function.evaluate(values);
+    }
+
+    /**
+     * evaluates the expression with values taken from a provider
+     *
+     * @param provider source of the variable values
+     * @return result of the expression
+     */
+    public boolean evaluate(AssignmentProvider provider) {
+        return evaluate(newAssignment().fill(provider));
+    }
+
+    /**
+     * checks whether evaluation has switched to generated bytecode
+     *
+     * @return true once the expression runs as generated code
+     */
+    public boolean isCompiled() {
+        return function.isCompiled();
+    }
+
+    /**
+     * getter for the compiled form, which is immutable too
+     *
+     * @return compiled expression
+     */
+    public CompiledExpression getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * getter for the root node
+     *
+     * @return root of the immutable tree
+     */
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * creates a mutable copy of the tree
+     *
+     * @return root node of the new tree
+     */
+    public TreeNode toTreeNode() {
+        IdentityHashMap<Node, TreeNode> done = new IdentityHashMap<>();
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            Node n = pending.peek();
+            if (done.containsKey(n)) {
+                pending.pop();
+                continue;
+            }
+
+            boolean ready = true;
+            if (n.right != null && !done.containsKey(n.right)) {
+                pending.push(n.right);
+                ready = false;
+            }
+            if (n.left != null && !done.containsKey(n.left)) {
+                pending.push(n.left);
+                ready = false;
+            }
+
+            if (ready) {
+                pending.pop();
+                done.put(n, n.name != null ? new TreeNode(n.name)
+                        : new TreeNode(n.data, done.get(n.left), done.get(n.right)));
+            }
+        }
+
+        return done.get(root);
+    }
+
+    public String getPostfixExp() {
+        return new ExpressionTree(toTreeNode()).getPostfixExp();
+    }
+
+    public String getInfixExp() {
+        return new ExpressionTree(toTreeNode()).getInfixExp();
+    }
+
+    public String getPrefixExp() {
+        return new ExpressionTree(toTreeNode()).getPrefixExp();
+    }
+
+    @Override
+    public String toString() {
+        return getInfixExp();
+    }
+
+    /**
+     * copies a tree into final nodes, keeping shared nodes shared
+     *
+     * @param tree root node of the tree
+     * @return root of the immutable copy
+     */
+    private static Node copy(TreeNode tree) {
+        IdentityHashMap<TreeNode, Node> done = new IdentityHashMap<>();
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(tree);
+
+        while (!pending.isEmpty()) {
+            TreeNode n = pending.peek();
+            if (done.containsKey(n)) {
+                pending.pop();
+                continue;
+            }
+
+            TreeNode left = n.getLeftNode();
+            TreeNode right = n.getRightNode();
+            boolean ready = true;
+
+            if (right != null && !done.containsKey(right)) {
+                pending.push(right);
+                ready = false;
+            }
+            if (left != null && !done.containsKey(left)) {
+                pending.push(left);
+                ready = false;
+            }
+
+            if (ready) {
+                pending.pop();
+                String name = Character.isLetter(n.getData()) ? n.getName() : null;
+                done.put(n, new Node(n.getData(), name, done.get(left), done.get(right)));
+            }
+        }
+
+        return done.get(tree);
+    }
+
+    /**
+     * Immutable node, storing data and the left/right child
+     */
+    public static final class Node {
+        private final char data;
+        private final String name;
+        private final Node left;
+        private final Node right;
+
+        Node(char data, String name, Node left, Node right) {
+            this.data = data;
+            this.name = name;
+            this.left = left;
+            this.right = right;
+        }
+
+        //getters
+        public char getData() { return data; }
+
+        /**
+         * getter for the variable name, or the data as
+         * a string if this is not a variable
+         *
+         * @return variable name
+         */
+        public String getName() {
+            return name != null ? name : String.valueOf(data);
+        }
+
+        public Node getLeftNode() {
+            return left;
+        }
+
+        public Node getRightNode() {
+            return right;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary file holding a whole set of parsed expressions, so a service
+ * can load its rules at startup without parsing any text. The file is
+ * mapped with FileChannel.map and an expression is only decoded the
+ * first time it is asked for, by copying its two arrays out of the
+ * mapping in bulk.
+ *
+ * Every expression is stored as the post-order arrays of a CompactTree.
+ * All numbers are big endian:
+ * <pre>
+ *     header, 40 bytes
+ *         int   magic "EXPA"
+ *         short version
+ *         short flags, always 0
+ *         int   expression count
+ *         int   string count
+ *         long  offset of the strings
+ *         long  offset of the index
+ *         int   CRC32C of the strings and the index
+ *         int   CRC32C of the 36 bytes before it
+ *     expression records, each starting on a multiple of 4
+ *         int   node count n
+ *         int   variable count v
+ *         int   stack depth needed to evaluate the expression
+ *         int   string id of each variable, in slot order
+ *         int   child entry of each node
+ *         byte  opcode of each node
+ *     strings, variable names and keys shared by every record
+ *         int   byte length, then the UTF-8 bytes
+ *     index, 20 bytes per expression
+ *         long  offset of the record
+ *         int   length of the record
+ *         int   string id of the key, or -1
+ *         int   CRC32C of the record
+ * </pre>
+ * Opening a file checks the header, the strings and the index. Each
+ * record is checked against its own checksum and for being well formed
+ * postfix when it is decoded, so a damaged rule fails on its own.
+ *
+ * An open archive can be read by several threads at once. A single
+ * file is limited to 2 GB, the size of one mapping.
+ *
+ */
+public final class ExpressionArchive implements Closeable {
+    static final int MAGIC = 0x45585041;
+    static final short VERSION = 1;
+
+    private static final int HEADER_SIZE = 40;
+    private static final int INDEX_ENTRY_SIZE = 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer map;
+    private final String[] strings;
+    private final int count;
+    private final long indexOffset;
+    private final AtomicReferenceArray<CompactTree> trees;
+    private volatile Map<String, Integer> keys;
+
+    private ExpressionArchive(FileChannel channel, ByteBuffer map) throws IOException {
+        this.channel = channel;
+        this.map = map;
+
+        if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC) {
+            throw new IOException("Not an expression archive");
+        }
+        if (map.getShort(4) != VERSION) {
+            throw new IOException("Unsupported archive version " + map.getShort(4));
+        }
+        if (map.getInt(36) != crc(map, 0, 36)) {
+            throw new IOException("Archive header is corrupt");
+        }
+
+        count = map.getInt(8);
+        int stringCount = map.getInt(12);
+        long stringsOffset = map.getLong(16);
+        indexOffset = map.getLong(24);
+        long end = indexOffset + (long) count * INDEX_ENTRY_SIZE;
+        if (count < 0 || stringCount < 0 || stringsOffset < HEADER_SIZE || indexOffset < stringsOffset
+                || end != map.capacity()) {
+            throw new IOException("Archive layout is corrupt");
+        }
+        if (map.getInt(32) != crc(map, (int) stringsOffset, (int) (end - stringsOffset))) {
+            throw new IOException("Archive strings or index are corrupt");
+        }
+
+        strings = new String[stringCount];
+        int pos = (int) stringsOffset;
+        for (int i = 0; i < stringCount; i++) {
+            int length = map.getInt(pos);
+            if (length < 0 || pos + 4L + length > indexOffset) {
+                throw new IOException("Archive strings are corrupt");
+            }
+            byte[] bytes = new byte[length];
+            map.get(pos + 4, bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            pos += 4 + length;
+        }
+
+        trees = new AtomicReferenceArray<>(count);
+    }
+
+    /**
+     * maps an archive file, the expressions are decoded on first use
+     *
+     * @param path archive file
+     * @return open archive
+     * @throws IOException if the file cannot be read or is not a valid archive
+     */
+    public static ExpressionArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Archive is larger than 2 GB: " + path);
+            }
+
+            return new ExpressionArchive(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * getter for the number of expressions
+     *
+     * @return expression count
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * getter for an expression, decoding it the first time it is asked for
+     *
+     * @param index position of the expression in the archive
+     * @return compact tree
+     * @throws UncheckedIOException if the record is corrupt
+     */
+    public CompactTree get(int index) {
+        CompactTree tree = trees.get(index);
+        if (tree == null) {
+            // two threads may decode the same record, both get equal trees
+            tree = decode(index);
+            if (!trees.compareAndSet(index, null, tree)) {
+                tree = trees.get(index);
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * getter for the key an expression was stored under
+     *
+     * @param index position of the expression in the archive
+     * @return key, or null if it was stored without one
+     */
+    public String getKey(int index) {
+        int key = map.getInt(entry(index) + 12);
+        if (key >= strings.length) {
+            throw corrupt(index, "has an unknown key");
+        }
+        return key < 0 ? null : strings[key];
+    }
+
+    /**
+     * finds an expression by its key
+     *
+     * @param key key given when the expression was written
+     * @return position of the expression, or -1 if no expression has the key
+     */
+    public int indexOf(String key) {
+        Map<String, Integer> byKey = keys;
+        if (byKey == null) {
+            HashMap<String, Integer> built = new HashMap<>();
+            for (int i = count - 1; i >= 0; i--) {
+                String k = getKey(i);
+                if (k != null) {
+                    built.put(k, i);
+                }
+            }
+            keys = byKey = built;
+        }
+
+        Integer index = byKey.get(key);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * closes the file, expressions that were already decoded stay usable
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * copies a record out of the mapping after checking it
+     *
+     * @param index position of the expression in the archive
+     * @return compact tree
+     */
+    private CompactTree decode(int index) {
+        int e = entry(index);
+        long offset = map.getLong(e);
+        int length = map.getInt(e + 8);
+
+        if (offset < HEADER_SIZE || length < 12 || offset + length > indexOffset) {
+            throw corrupt(index, "has an invalid position");
+        }
+        int pos = (int) offset;
+        if (crc(map, pos, length) != map.getInt(e + 16)) {
+            throw corrupt(index, "fails its checksum");
+        }
+
+        int nodes = map.getInt(pos);
+        int variableCount = map.getInt(pos + 4);
+        int maxDepth = map.getInt(pos + 8);
+        if (nodes < 1 || variableCount < 0 || 12L + 4L * variableCount + 5L * nodes != length) {
+            throw corrupt(index, "has an invalid size");
+        }
+
+        IntBuffer ints = map.slice(pos + 12, length - 12 - nodes).asIntBuffer();
+        String[] variables = new String[variableCount];
+        for (int s = 0; s < variableCount; s++) {
+            int id = ints.get();
+            if (id < 0 || id >= strings.length) {
+                throw corrupt(index, "names an unknown variable");
+            }
+            variables[s] = strings[id];
+        }
+
+        int[] child = new int[nodes];
+        byte[] ops = new byte[nodes];
+        ints.get(child);
+        map.get(pos + length - nodes, ops);
+
+        if (!wellFormed(ops, child, variableCount, maxDepth)) {
+            throw corrupt(index, "is not a valid expression");
+        }
+        return new CompactTree(ops, child, variables, maxDepth);
+    }
+
+    /**
+     * checks that the arrays are the post-order of one tree, with every
+     * left child where the child entry says, and that the stored stack
+     * depth is the one evaluation needs
+     */
+    private static boolean wellFormed(byte[] ops, int[] child, int variableCount, int maxDepth) {
+        int[] roots = new int[Math.max(1, maxDepth)];
+        int depth = 0;
+        int deepest = 0;
+
+        for (int i = 0; i < ops.length; i++) {
+            switch (ops[i]) {
+                case CompiledExpression.FALSE:
+                case CompiledExpression.TRUE:
+                case CompiledExpression.LOAD:
+                    if (depth == roots.length
+                            || (ops[i] == CompiledExpression.LOAD && (child[i] < 0 || child[i] >= variableCount))) {
+                        return false;
+                    }
+                    roots[depth++] = i;
+                    break;
+                case CompiledExpression.NOT:
+                    if (depth < 1 || roots[depth - 1] != i - 1) {
+                        return false;
+                    }
+                    roots[depth - 1] = i;
+                    break;
+                case CompiledExpression.AND:
+                case CompiledExpression.OR:
+                case CompiledExpression.XOR:
+                    if (depth < 2 || roots[depth - 1] != i - 1 || roots[depth - 2] != child[i]) {
+                        return false;
+                    }
+                    roots[--depth - 1] = i;
+                    break;
+                default:
+                    return false;
+            }
+            deepest = Math.max(deepest, depth);
+        }
+
+        return depth == 1 && deepest == maxDepth;
+    }
+
+    private int entry(int index) {
+        Objects.checkIndex(index, count);
+        return (int) (indexOffset + (long) index * INDEX_ENTRY_SIZE);
+    }
+
+    private static UncheckedIOException corrupt(int index, String problem) {
+        return new UncheckedIOException(new IOException("Expression " + index + " of the archive " + problem));
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Collects expressions and writes them into one archive file
+     */
+    public static final class Writer {
+        private final SymbolTable strings = new SymbolTable();
+        private final ArrayList<CompactTree> trees = new ArrayList<>();
+        private final ArrayList<String> keys = new ArrayList<>();
+
+        /**
+         * adds an expression without a key
+         *
+         * @param tree expression to store
+         * @return this writer
+         */
+        public Writer add(CompactTree tree) {
+            return add(null, tree);
+        }
+
+        /**
+         * adds an expression which can be found again by its key
+         *
+         * @param key name of the expression, or null
+         * @param tree expression to store
+         * @return this writer
+         */
+        public Writer add(String key, CompactTree tree) {
+            if (key != null) {
+                strings.intern(key);
+            }
+            trees.add(tree);
+            keys.add(key);
+            return this;
+        }
+
+        /**
+         * getter for the number of expressions added so far
+         *
+         * @return expression count
+         */
+        public int size() {
+            return trees.size();
+        }
+
+        /**
+         * writes every added expression, replacing the file if it exists
+         *
+         * @param path archive file
+         * @throws IOException if the file cannot be written
+         */
+        public void write(Path path) throws IOException {
+            ByteBuffer index = ByteBuffer.allocate(trees.size() * INDEX_ENTRY_SIZE);
+
+            try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long pos = HEADER_SIZE;
+
+                for (int t = 0; t < trees.size(); t++) {
+                    CompactTree tree = trees.get(t);
+                    CompiledExpression compiled = tree.compile();
+                    byte[] ops = compiled.code();
+                    int[] child = compiled.operands();
+                    int v = tree.getVariableCount();
+                    int length = 12 + 4 * v + 5 * ops.length;
+
+                    ByteBuffer record = ByteBuffer.allocate((length + 3) & ~3);
+                    record.putInt(ops.length).putInt(v).putInt(compiled.maxDepth());
+                    for (int s = 0; s < v; s++) {
+                        record.putInt(strings.intern(tree.getVariable(s)));
+                    }
+                    record.asIntBuffer().put(child);
+                    record.position(record.position() + 4 * child.length);
+                    record.put(ops);
+                    record.flip();
+
+                    index.putLong(pos).putInt(length).putInt(keys.get(t) == null ? -1 : strings.intern(keys.get(t)))
+                            .putInt(crc(record, 0, length));
+                    record.limit(record.capacity());
+                    pos += writeFully(out, record, pos);
+                }
+
+                long stringsOffset = pos;
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(bytes);
+                for (int i = 0; i < strings.size(); i++) {
+                    byte[] name = strings.nameOf(i).getBytes(StandardCharsets.UTF_8);
+                    data.writeInt(name.length);
+                    data.write(name);
+                }
+                data.flush();
+
+                ByteBuffer tail = ByteBuffer.allocate(bytes.size() + index.capacity());
+                tail.put(bytes.toByteArray()).put(index.flip()).flip();
+                long indexOffset = stringsOffset + bytes.size();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(trees.size())
+                        .putInt(strings.size()).putLong(stringsOffset).putLong(indexOffset)
+                        .putInt(crc(tail, 0, tail.remaining()));
+                header.putInt(crc(header, 0, 36));
+                header.flip();
+
+                writeFully(out, tail, stringsOffset);
+                writeFully(out, header, 0);
+            }
+        }
+
+        private static int writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+            int written = 0;
+            while (buffer.hasRemaining()) {
+                written += out.write(buffer, position + written);
+            }
+            return written;
+        }
+    }
+}
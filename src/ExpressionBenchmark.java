@@ -0,0 +1,385 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Benchmark harness for parsing, validating, rendering and evaluating
+ * expressions, run as
+ * <pre>
+ *     java ExpressionBenchmark [--seed n] [--depth n] [--vars n]
+ *         [--shape balanced|degenerate|random] [--count n]
+ *         [--iterations n] [--millis n] [--weights and,or,xor,not]
+ *         [--scaling nodes] [--columns rows,rows,...]
+ * </pre>
+ * A workload of count expressions is made by ExpressionGenerator, then
+ * every benchmark cycles through it for a number of warmup iterations
+ * followed by the same number of measured ones, each lasting about
+ * millis milliseconds. The best time per operation and the bytes
+ * allocated per operation of the measured iterations are reported.
+ *
+ * With --scaling the usual benchmarks are replaced by a scaling run of
+ * ParallelEvaluator: one balanced and one degenerate tree of about the
+ * given number of nodes are evaluated sequentially and then on fork/join
+ * pools of 1, 2, 4 and so on up to the number of available processors.
+ *
+ * With --columns they are replaced by ColumnFilter runs over random bit
+ * packed columns of each given number of rows, with the scalar loops and
+ * with the Vector API backend, followed by the speedup. The JVM has to run
+ * with --add-modules jdk.incubator.vector for the vector half.
+ *
+ * Results are folded into a volatile field so the JIT cannot drop the
+ * measured work. DifferentialCheck runs first and the benchmarks are
+ * skipped if any evaluation path disagrees with the reference.
+ *
+ * The same operations are measured by the JMH suite in the jmh module,
+ * which gets them from operations. The suite lives in a package of its
+ * own, as JMH requires, so it only sees them as IntToLongFunction.
+ *
+ */
+public final class ExpressionBenchmark {
+    /** most expressions in the workload of runColumns */
+    static final int COLUMN_EXPRESSIONS = 64;
+
+    private static volatile long sink;
+
+    private final int iterations;
+    private final long millis;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * constructor to set how long each benchmark runs
+     *
+     * @param iterations warmup and measured iterations
+     * @param millis length of an iteration
+     */
+    ExpressionBenchmark(int iterations, long millis) {
+        this.iterations = iterations;
+        this.millis = millis;
+    }
+
+    /**
+     * main method to generate the workload and run every benchmark
+     *
+     * @param args options, see the class comment
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>(Map.of(
+            "--seed", "42",
+            "--depth", "8",
+            "--vars", "8",
+            "--shape", "random",
+            "--count", "1024",
+            "--iterations", "5",
+            "--millis", "500",
+            "--weights", "1,1,1,1",
+            "--scaling", "0",
+            "--columns", "0"));
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!options.containsKey(args[i])) {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+            options.put(args[i], args[i + 1]);
+        }
+
+        List<String> failures = DifferentialCheck.run(Long.parseLong(options.get("--seed")), 50);
+        if (!failures.isEmpty()) {
+            failures.forEach(System.out::println);
+            System.out.println("Differential check failed, not benchmarking");
+            System.exit(1);
+        }
+
+        ExpressionGenerator generator = generator(Long.parseLong(options.get("--seed")),
+                Integer.parseInt(options.get("--depth")), Integer.parseInt(options.get("--vars")),
+                options.get("--shape"), options.get("--weights"));
+
+        ExpressionBenchmark bench = new ExpressionBenchmark(Integer.parseInt(options.get("--iterations")),
+                Long.parseLong(options.get("--millis")));
+        int scaling = Integer.parseInt(options.get("--scaling"));
+        if (scaling > 0) {
+            bench.runScaling(Long.parseLong(options.get("--seed")), Integer.parseInt(options.get("--vars")), scaling);
+        }
+        else if (!options.get("--columns").equals("0")) {
+            int[] rows = Arrays.stream(options.get("--columns").split(",")).mapToInt(Integer::parseInt).toArray();
+            bench.runColumns(generator, Integer.parseInt(options.get("--count")), rows);
+        }
+        else {
+            bench.runAll(generator, Integer.parseInt(options.get("--count")));
+        }
+    }
+
+    /**
+     * creates the generator of the workload from the command line settings
+     *
+     * @param seed random seed
+     * @param depth operators on the longest path from the root to a leaf
+     * @param variableCount number of distinct variables
+     * @param shape balanced, degenerate or random
+     * @param weights weights of and, or, xor and not separated by commas
+     * @return generator
+     */
+    static ExpressionGenerator generator(long seed, int depth, int variableCount, String shape, String weights) {
+        String[] w = weights.split(",");
+        return new ExpressionGenerator(seed, depth, variableCount)
+                .setShape(ExpressionGenerator.Shape.valueOf(shape.toUpperCase()))
+                .setOperatorWeights(Integer.parseInt(w[0]), Integer.parseInt(w[1]), Integer.parseInt(w[2]),
+                        Integer.parseInt(w[3]));
+    }
+
+    /**
+     * builds a workload and the operations measured on it, for the JMH
+     * suite. Each operation takes the index of an expression in the
+     * workload and returns something derived from its result
+     *
+     * @param seed random seed
+     * @param depth operators on the longest path from the root to a leaf
+     * @param variableCount number of distinct variables
+     * @param shape balanced, degenerate or random
+     * @param weights weights of and, or, xor and not separated by commas
+     * @param count number of expressions in the workload
+     * @return operations by benchmark name, in the order they are run
+     */
+    public static Map<String, IntToLongFunction> operations(long seed, int depth, int variableCount, String shape,
+                                                            String weights, int count) {
+        return operations(generator(seed, depth, variableCount, shape, weights), count);
+    }
+
+    /**
+     * builds the workload and runs the benchmarks one after another
+     *
+     * @param generator source of the expressions
+     * @param count number of expressions in the workload
+     */
+    void runAll(ExpressionGenerator generator, int count) {
+        System.out.printf("%-32s %14s %14s%n", "benchmark", "ns/op", "bytes/op");
+        operations(generator, count).forEach((name, op) -> measure(name, count, op));
+    }
+
+    /**
+     * builds a workload and the operations measured on it
+     *
+     * @param generator source of the expressions
+     * @param count number of expressions in the workload
+     * @return operations by benchmark name, in the order they are run
+     */
+    static Map<String, IntToLongFunction> operations(ExpressionGenerator generator, int count) {
+        String[] postfix = new String[count];
+        String[] infix = new String[count];
+        String[] malformed = new String[count];
+        TreeNode[] roots = new TreeNode[count];
+        ExpressionTree[] trees = new ExpressionTree[count];
+        Assignment[] assignments = new Assignment[count];
+        CompiledExpression[] compiled = new CompiledExpression[count];
+        long[][] words = new long[count][];
+        long[][] stacks = new long[count][];
+        Random random = new Random(count);
+
+        for (int i = 0; i < count; i++) {
+            roots[i] = generator.nextTree();
+            trees[i] = new ExpressionTree(roots[i]);
+            postfix[i] = trees[i].getPostfixExp();
+            infix[i] = trees[i].getInfixExp();
+            // one operand short, only found at the last char
+            malformed[i] = postfix[i] + "&";
+            compiled[i] = trees[i].compile();
+            assignments[i] = trees[i].newAssignment().setBits(random.nextLong());
+            words[i] = new long[compiled[i].getVariableCount()];
+            for (int slot = 0; slot < words[i].length; slot++) {
+                words[i][slot] = random.nextLong();
+            }
+            stacks[i] = compiled[i].newWordStack();
+        }
+
+        ExpressionTree validator = new ExpressionTree();
+        Map<String, IntToLongFunction> operations = new LinkedHashMap<>();
+
+        operations.put("validate postfix", i -> validator.validatePostfixExp(postfix[i]) ? 1 : 0);
+        operations.put("parse postfix", i -> new ExpressionTree(postfix[i]).getNodeCount());
+        operations.put("reject postfix result", i -> PostfixParser.parse(malformed[i]).getPosition());
+        operations.put("reject postfix exception", i -> rejectPosition(malformed[i]));
+        operations.put("parse infix", i -> ExpressionTree.fromInfix(infix[i]).getNodeCount());
+        operations.put("translateToPostfix", i -> validator.translateToPostfix(infix[i]).length());
+        operations.put("render postfix", i -> trees[i].getPostfixExp().length());
+        operations.put("render infix", i -> trees[i].getInfixExp().length());
+        operations.put("render prefix", i -> trees[i].getPrefixExp().length());
+        operations.put("compile", i -> CompiledExpression.compile(roots[i]).size());
+        operations.put("evaluate", i -> trees[i].evaluate(assignments[i]) ? 1 : 0);
+        operations.put("evaluate interpreted", i -> compiled[i].evaluate(assignments[i]) ? 1 : 0);
+        operations.put("evaluate 64 rows", i -> compiled[i].evaluateWords(words[i], stacks[i]));
+        return operations;
+    }
+
+    /**
+     * measures ParallelEvaluator against sequential evaluation on pools
+     * of growing size, for a balanced and a degenerate tree
+     *
+     * @param seed generator seed
+     * @param variableCount number of distinct variables
+     * @param nodes approximate size of each tree
+     */
+    void runScaling(long seed, int variableCount, int nodes) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d available processors%n", processors);
+        System.out.printf("%-32s %14s %14s%n", "benchmark", "ns/op", "bytes/op");
+
+        for (ExpressionGenerator.Shape shape : List.of(ExpressionGenerator.Shape.BALANCED,
+                ExpressionGenerator.Shape.DEGENERATE)) {
+            CompactTree tree = treeOfSize(seed, variableCount, shape, nodes);
+            Assignment assignment = tree.newAssignment().setBits(new Random(seed).nextLong());
+            String label = shape.name().toLowerCase() + " " + tree.size();
+
+            boolean expected = tree.evaluate(assignment);
+            measure(label + " sequential", 1, i -> tree.evaluate(assignment) ? 1 : 0);
+
+            for (int threads = 1; ; threads = Math.min(threads * 2, processors)) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    ParallelEvaluator parallel = new ParallelEvaluator(tree, pool, ParallelEvaluator.DEFAULT_THRESHOLD);
+                    if (parallel.evaluate(assignment) != expected) {
+                        throw new IllegalStateException("Parallel result differs on " + label);
+                    }
+                    measure(label + " x" + threads, 1, i -> parallel.evaluate(assignment) ? 1 : 0);
+                }
+                finally {
+                    pool.shutdown();
+                }
+
+                if (threads == processors) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * measures ColumnFilter with the scalar loops against the Vector API
+     * backend over columns of growing length. The workload is capped at
+     * COLUMN_EXPRESSIONS expressions so long columns finish in time
+     *
+     * @param generator source of the expressions
+     * @param count number of expressions in the workload
+     * @param rowCounts column lengths to measure
+     */
+    void runColumns(ExpressionGenerator generator, int count, int[] rowCounts) {
+        int n = Math.min(count, COLUMN_EXPRESSIONS);
+        CompiledExpression[] compiled = new CompiledExpression[n];
+        int variableCount = 0;
+        for (int i = 0; i < n; i++) {
+            compiled[i] = CompiledExpression.compile(generator.nextTree());
+            variableCount = Math.max(variableCount, compiled[i].getVariableCount());
+        }
+
+        boolean vectors = ColumnFilter.isVectorAvailable();
+        if (!vectors) {
+            System.out.println("Vector API not available, run with --add-modules jdk.incubator.vector");
+        }
+        System.out.printf("%-32s %14s %14s%n", "benchmark", "ns/op", "bytes/op");
+
+        Random random = new Random(n);
+        for (int rows : rowCounts) {
+            long[][] columns = new long[variableCount][(rows + 63) >>> 6];
+            for (long[] column : columns) {
+                for (int w = 0; w < column.length; w++) {
+                    column[w] = random.nextLong();
+                }
+            }
+
+            // ColumnFilter wants exactly one column per variable slot
+            long[][][] slots = new long[n][][];
+            ColumnFilter[] scalar = new ColumnFilter[n];
+            ColumnFilter[] vector = new ColumnFilter[n];
+            for (int i = 0; i < n; i++) {
+                slots[i] = Arrays.copyOf(columns, compiled[i].getVariableCount());
+                scalar[i] = new ColumnFilter(compiled[i], false);
+                vector[i] = vectors ? new ColumnFilter(compiled[i], true) : null;
+            }
+
+            double scalarNanos = measure("columns " + rows + " scalar", n, i -> scalar[i].filter(slots[i], rows)[0]);
+            if (vectors) {
+                double vectorNanos = measure("columns " + rows + " vector", n, i -> vector[i].filter(slots[i], rows)[0]);
+                System.out.printf("%-32s %13.2fx%n", "columns " + rows + " speedup", scalarNanos / vectorNanos);
+            }
+        }
+    }
+
+    /**
+     * generates a tree of at least the given size, balanced trees double
+     * with every level of depth and degenerate ones grow about linearly
+     */
+    private static CompactTree treeOfSize(long seed, int variableCount, ExpressionGenerator.Shape shape, int nodes) {
+        int depth = shape == ExpressionGenerator.Shape.BALANCED ? 1 : Math.max(1, nodes / 2);
+
+        while (true) {
+            CompactTree tree = CompactTree.of(new ExpressionGenerator(seed, depth, variableCount)
+                    .setShape(shape).nextTree());
+            if (tree.size() >= nodes) {
+                return tree;
+            }
+            depth = shape == ExpressionGenerator.Shape.BALANCED ? depth + 1
+                    : (int) ((long) depth * nodes / tree.size()) + 1;
+        }
+    }
+
+    /**
+     * parses malformed postfix with the throwing variant and
+     * returns where the error was found
+     */
+    private static int rejectPosition(String postfix) {
+        try {
+            return PostfixParser.parseOrThrow(postfix).getData();
+        }
+        catch (ExpressionParseException e) {
+            return e.getPosition();
+        }
+    }
+
+    /**
+     * runs one benchmark and prints its best time and allocation per operation
+     *
+     * @param name name of the benchmark
+     * @param count size of the workload
+     * @param op operation to measure
+     * @return best time per operation in nanoseconds
+     */
+    double measure(String name, int count, IntToLongFunction op) {
+        double bestNanos = Double.MAX_VALUE;
+        double bytes = 0;
+
+        for (int iteration = 0; iteration < 2 * iterations; iteration++) {
+            long ops = 0;
+            long acc = 0;
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            long deadline = start + millis * 1_000_000L;
+            long now;
+
+            do {
+                for (int i = 0; i < count; i++) {
+                    acc += op.applyAsLong(i);
+                }
+                ops += count;
+                now = System.nanoTime();
+            } while (now < deadline);
+
+            sink = acc;
+            if (iteration >= iterations) {
+                bestNanos = Math.min(bestNanos, (double) (now - start) / ops);
+                bytes = (double) (allocatedBytes() - allocated) / ops;
+            }
+        }
+
+        System.out.printf("%-32s %14.1f %14.1f%n", name, bestNanos, bytes);
+        return bestNanos;
+    }
+
+    /**
+     * bytes allocated so far by this thread, or 0 if the JVM cannot tell
+     */
+    private long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
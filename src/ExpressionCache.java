@@ -0,0 +1,210 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * Thread-safe, size bounded cache from expression text to its parsed
+ * or compiled form. Keys are normalized by dropping whitespace, except
+ * between two identifier characters where it separates names, and the
+ * least recently used entry is evicted once the cache is full.
+ *
+ * Each entry holds a FutureTask, so when several threads ask for the same
+ * missing expression only the first one parses it and the others wait for
+ * its result. Parsing happens outside the lock. Expressions which fail to
+ * parse are not cached and the failure is rethrown to every waiting caller.
+ * The loader is given the text as the first caller wrote it, so error
+ * positions are counted in that text.
+ *
+ * forInfix and forPostfix compile the simplified form of each tree, see
+ * CompiledExpression.compileSimplified.
+ *
+ * Cached values are handed to many threads at once, so they should be
+ * immutable, like CompiledExpression.
+ *
+ */
+public final class ExpressionCache<V> {
+    private final int maximumSize;
+    private final Function<String, ? extends V> loader;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, FutureTask<V>> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * constructor to set the size limit and how values are made
+     *
+     * @param maximumSize most entries kept at once
+     * @param loader turns expression text into a value
+     */
+    public ExpressionCache(int maximumSize, Function<String, ? extends V> loader) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maximumSize);
+        }
+
+        this.maximumSize = maximumSize;
+        this.loader = loader;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FutureTask<V>> eldest) {
+                if (size() > ExpressionCache.this.maximumSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * creates a cache of compiled infix expressions
+     *
+     * @param maximumSize most entries kept at once
+     * @return new cache
+     */
+    public static ExpressionCache<CompiledExpression> forInfix(int maximumSize) {
+        return new ExpressionCache<>(maximumSize, infix -> CompiledExpression.compileSimplified(InfixParser.parse(infix)));
+    }
+
+    /**
+     * creates a cache of compiled postfix expressions
+     *
+     * @param maximumSize most entries kept at once
+     * @return new cache
+     */
+    public static ExpressionCache<CompiledExpression> forPostfix(int maximumSize) {
+        return new ExpressionCache<>(maximumSize, postfix -> CompiledExpression.compileSimplified(PostfixParser.parseOrThrow(postfix)));
+    }
+
+    /**
+     * returns the value for an expression, parsing it on a miss
+     *
+     * @param expression expression text
+     * @return cached or newly loaded value
+     */
+    public V get(String expression) {
+        String key = normalize(expression);
+        FutureTask<V> task;
+        boolean owner = false;
+
+        lock.lock();
+        try {
+            task = entries.get(key);
+            if (task == null) {
+                task = new FutureTask<>(() -> loader.apply(expression));
+                entries.put(key, task);
+                owner = true;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        if (owner) {
+            misses.increment();
+            task.run();
+        }
+        else {
+            hits.increment();
+        }
+
+        try {
+            return task.get();
+        }
+        catch (ExecutionException e) {
+            discard(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + key, e);
+        }
+    }
+
+    /**
+     * removes a failed entry unless it was already replaced
+     */
+    private void discard(String key, FutureTask<V> task) {
+        lock.lock();
+        try {
+            entries.remove(key, task);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * drops the whitespace of an expression so equivalent spellings share
+     * an entry. Whitespace between two identifier characters is kept as one
+     * space, since a b are two names where ab is one
+     *
+     * @param expression expression text
+     * @return normalized text
+     */
+    static String normalize(String expression) {
+        StringBuilder key = null;
+
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (key == null) {
+                    key = new StringBuilder(expression.length());
+                    key.append(expression, 0, i);
+                }
+                int next = i + 1;
+                while (next < expression.length() && Character.isWhitespace(expression.charAt(next))) {
+                    next++;
+                }
+                if (key.length() > 0 && next < expression.length()
+                        && SymbolTable.isIdentifierPart(key.charAt(key.length() - 1))
+                        && SymbolTable.isIdentifierPart(expression.charAt(next))) {
+                    key.append(' ');
+                }
+                i = next - 1;
+            }
+            else if (key != null) {
+                key.append(c);
+            }
+        }
+
+        return key == null ? expression : key.toString();
+    }
+
+    /**
+     * getter for the number of entries
+     *
+     * @return entry count
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    //getters for the counters
+    public long getHits() { return hits.sum(); }
+
+    public long getMisses() { return misses.sum(); }
+
+    public long getEvictions() { return evictions.sum(); }
+
+    @Override
+    public String toString() {
+        return "ExpressionCache[size=" + size() + "/" + maximumSize + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+}
@@ -0,0 +1,216 @@
+import java.util.*;
+
+/**
+ * Seeded generator of random expression trees, used as the workload of
+ * ExpressionBenchmark. The same seed and settings always produce the
+ * same sequence of expressions.
+ *
+ * The shape decides how the tree is grown:
+ * <ul>
+ * <li>BALANCED, every operand of an operator is grown to the full depth
+ * <li>DEGENERATE, a left-deep chain of operators with a variable on the
+ * right of each, the worst case for recursive code
+ * <li>RANDOM, every operand stops early as a variable with a fixed chance
+ * </ul>
+ * Operators are picked by weight, and variables are picked uniformly from
+ * the first variableCount letters, or from the names v0, v1, ... when
+ * there are more variables than letters. Trees are built without recursion, so
+ * degenerate trees can be made as deep as memory allows.
+ *
+ */
+public final class ExpressionGenerator {
+    /** ways of growing the tree */
+    public enum Shape { BALANCED, DEGENERATE, RANDOM }
+
+    /** the most variables that are named by a single lowercase letter */
+    public static final int MAX_LETTERS = 26;
+
+    private static final char[] OPERATORS = {'&', '|', '^', '!'};
+    private static final double STOP_CHANCE = 0.3;
+
+    private final Random random;
+    private final int depth;
+    private final int variableCount;
+    private Shape shape = Shape.RANDOM;
+    private int[] weights = {1, 1, 1, 1};
+    private int totalWeight = 4;
+
+    /**
+     * constructor to set the seed, the depth and the number of variables
+     *
+     * @param seed random seed
+     * @param depth operators on the longest path from the root to a leaf
+     * @param variableCount number of distinct variables to draw from
+     */
+    public ExpressionGenerator(long seed, int depth, int variableCount) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Negative depth: " + depth);
+        }
+        if (variableCount < 1) {
+            throw new IllegalArgumentException("Variable count must be positive: " + variableCount);
+        }
+
+        this.random = new Random(seed);
+        this.depth = depth;
+        this.variableCount = variableCount;
+    }
+
+    /**
+     * setter for the shape of the generated trees
+     *
+     * @param shape how the trees are grown
+     * @return this generator
+     */
+    public ExpressionGenerator setShape(Shape shape) {
+        this.shape = shape;
+        return this;
+    }
+
+    /**
+     * setter for the operator mix, a weight of 0 leaves that operator out
+     *
+     * @param and weight of &amp;
+     * @param or weight of |
+     * @param xor weight of ^
+     * @param not weight of !
+     * @return this generator
+     */
+    public ExpressionGenerator setOperatorWeights(int and, int or, int xor, int not) {
+        int[] w = {and, or, xor, not};
+        int total = 0;
+
+        for (int x : w) {
+            if (x < 0) {
+                throw new IllegalArgumentException("Negative operator weight: " + x);
+            }
+            total += x;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("At least one operator needs a positive weight");
+        }
+
+        this.weights = w;
+        this.totalWeight = total;
+        return this;
+    }
+
+    /**
+     * generates the next tree
+     *
+     * @return root node of a new tree
+     */
+    public TreeNode nextTree() {
+        if (shape == Shape.DEGENERATE) {
+            return nextChain();
+        }
+
+        // grow the tree in prefix order with a stack of remaining depths,
+        // then build it from the reversed prefix with a stack of nodes.
+        // Operators are stored as their symbol and variables as ~index
+        int[] prefix = new int[16];
+        int length = 0;
+        int[] pending = new int[Math.max(16, depth + 1)];
+        int top = 0;
+        pending[0] = depth;
+
+        while (top >= 0) {
+            int d = pending[top--];
+            if (length == prefix.length) {
+                prefix = Arrays.copyOf(prefix, length * 2);
+            }
+
+            if (d == 0 || (shape == Shape.RANDOM && d < depth && random.nextDouble() < STOP_CHANCE)) {
+                prefix[length++] = ~random.nextInt(variableCount);
+                continue;
+            }
+
+            char op = nextOperator();
+            prefix[length++] = op;
+            int children = op == '!' ? 1 : 2;
+            if (top + children >= pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            for (int i = 0; i < children; i++) {
+                pending[++top] = d - 1;
+            }
+        }
+
+        ArrayDeque<TreeNode> nodes = new ArrayDeque<>();
+        for (int i = length - 1; i >= 0; i--) {
+            int token = prefix[i];
+            if (token < 0) {
+                nodes.push(variable(~token));
+            }
+            else if (token == '!') {
+                nodes.push(new TreeNode((char) token, null, nodes.pop()));
+            }
+            else {
+                TreeNode left = nodes.pop();
+                nodes.push(new TreeNode((char) token, left, nodes.pop()));
+            }
+        }
+
+        return nodes.pop();
+    }
+
+    /**
+     * generates the next tree as a postfix expression
+     *
+     * @return postfix expression
+     */
+    public String nextPostfix() {
+        return new ExpressionTree(nextTree()).getPostfixExp();
+    }
+
+    /**
+     * generates the next tree as a fully parenthesized infix expression
+     *
+     * @return infix expression
+     */
+    public String nextInfix() {
+        return new ExpressionTree(nextTree()).getInfixExp();
+    }
+
+    /**
+     * grows a left-deep chain of depth operators
+     */
+    private TreeNode nextChain() {
+        TreeNode node = nextVariable();
+
+        for (int i = 0; i < depth; i++) {
+            char op = nextOperator();
+            if (op == '!') {
+                node = new TreeNode(op, null, node);
+            }
+            else {
+                node = new TreeNode(op, node, nextVariable());
+            }
+        }
+
+        return node;
+    }
+
+    private char nextOperator() {
+        int pick = random.nextInt(totalWeight);
+
+        for (int i = 0; i < weights.length; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return OPERATORS[i];
+            }
+        }
+
+        throw new AssertionError();
+    }
+
+    private TreeNode nextVariable() {
+        return variable(random.nextInt(variableCount));
+    }
+
+    private TreeNode variable(int index) {
+        if (variableCount <= MAX_LETTERS) {
+            return new TreeNode((char) ('a' + index));
+        }
+        return new TreeNode("v" + index);
+    }
+}
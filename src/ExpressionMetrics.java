@@ -0,0 +1,473 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import jdk.jfr.*;
+
+/**
+ * Opt-in instrumentation of ExpressionTree. When enabled, every phase
+ * (translating infix to postfix, validating, populating the tree,
+ * parsing infix directly, rendering and evaluating) counts its calls and
+ * their total time in striped LongAdder counters, and files each call
+ * in a latency histogram with one bucket per power of two nanoseconds.
+ * Each evaluated expression also gets a hit counter, keyed by its
+ * postfix text, so the hot expressions can be found.
+ *
+ * Evaluations slower than a threshold and parses of text longer than a
+ * threshold are also emitted as JDK Flight Recorder events, named
+ * expression.SlowEvaluation and expression.LargeParse, which show up in
+ * a recording next to the JVM's own events.
+ *
+ * Metrics start disabled unless the JVM runs with -Dexpression.metrics=true.
+ * While disabled an instrumented call only reads one volatile flag.
+ * Every method may be called from any thread.
+ *
+ */
+public final class ExpressionMetrics {
+    /**
+     * Instrumented phases of ExpressionTree
+     */
+    public enum Phase {
+        /** translateToPostfix */
+        TRANSLATE,
+        /** PostfixParser, validating and building the tree from postfix in one pass */
+        POPULATE,
+        /** fromInfix, parsing infix straight into a tree */
+        PARSE,
+        /** writing postfix, infix or prefix text */
+        RENDER,
+        /** evaluating with an assignment */
+        EVALUATE
+    }
+
+    /** distinct expressions given their own hit counter, the rest share one */
+    static final int MAX_TRACKED_EXPRESSIONS = 10_000;
+
+    private static final int BUCKETS = Long.SIZE;
+    private static final int MAX_EVENT_TEXT = 256;
+
+    private static volatile boolean enabled = Boolean.getBoolean("expression.metrics");
+    private static volatile long slowEvaluationNanos = 1_000_000;
+    private static volatile int largeParseLength = 10_000;
+
+    private static final Counters[] PHASES = new Counters[Phase.values().length];
+    private static final ConcurrentHashMap<String, LongAdder> HITS = new ConcurrentHashMap<>();
+    private static final LongAdder UNTRACKED_HITS = new LongAdder();
+
+    static {
+        for (int i = 0; i < PHASES.length; i++) {
+            PHASES[i] = new Counters();
+        }
+    }
+
+    private ExpressionMetrics() {
+    }
+
+    /**
+     * turns the instrumentation on or off, counts gathered so far are kept
+     *
+     * @param on true to record metrics
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * getter for whether metrics are being recorded
+     *
+     * @return true if enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * sets the duration from which an evaluation is reported as a
+     * flight recorder event
+     *
+     * @param nanos threshold in nanoseconds
+     */
+    public static void setSlowEvaluationThreshold(long nanos) {
+        slowEvaluationNanos = nanos;
+    }
+
+    /**
+     * sets the text length from which a parse is reported as a
+     * flight recorder event
+     *
+     * @param length threshold in characters
+     */
+    public static void setLargeParseThreshold(int length) {
+        largeParseLength = length;
+    }
+
+    /**
+     * sets every counter, histogram and hit count back to zero. Trees
+     * keep their hit counter, so tracked expressions stay tracked
+     */
+    public static void reset() {
+        for (Counters c : PHASES) {
+            c.reset();
+        }
+        HITS.values().forEach(LongAdder::reset);
+        UNTRACKED_HITS.reset();
+    }
+
+    /**
+     * copies the current state of every counter
+     *
+     * @return snapshot of the metrics
+     */
+    public static Snapshot snapshot() {
+        EnumMap<Phase, PhaseStats> phases = new EnumMap<>(Phase.class);
+        for (Phase p : Phase.values()) {
+            phases.put(p, PHASES[p.ordinal()].stats(p));
+        }
+
+        HashMap<String, Long> hits = new HashMap<>();
+        HITS.forEach((expression, count) -> {
+            long sum = count.sum();
+            if (sum > 0) {
+                hits.put(expression, sum);
+            }
+        });
+        return new Snapshot(phases, hits, UNTRACKED_HITS.sum());
+    }
+
+    /**
+     * starts timing a call
+     *
+     * @return start time, or 0 when metrics are disabled
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * records a call of a phase started by start
+     *
+     * @param phase instrumented phase
+     * @param start value returned by start
+     */
+    static void record(Phase phase, long start) {
+        if (start != 0L) {
+            PHASES[phase.ordinal()].add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * records a parsing phase, and emits an event when the text was long
+     *
+     * @param phase instrumented phase
+     * @param start value returned by start
+     * @param length length of the parsed text
+     */
+    static void recordParse(Phase phase, long start, int length) {
+        if (start == 0L) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - start;
+        PHASES[phase.ordinal()].add(nanos);
+        if (length >= largeParseLength) {
+            LargeParseEvent event = new LargeParseEvent();
+            if (event.isEnabled()) {
+                event.phase = phase.name();
+                event.length = length;
+                event.nanos = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * records an evaluation, and emits an event when it was slow. The
+     * caller measures the time itself, so looking up the hit counter
+     * afterwards is not counted as part of the evaluation
+     *
+     * @param nanos duration of the evaluation
+     * @param hits hit counter of the expression from hitCounter
+     * @param expression postfix text of the expression
+     */
+    static void recordEvaluation(long nanos, LongAdder hits, String expression) {
+        PHASES[Phase.EVALUATE.ordinal()].add(nanos);
+        hits.increment();
+        if (nanos >= slowEvaluationNanos) {
+            SlowEvaluationEvent event = new SlowEvaluationEvent();
+            if (event.isEnabled()) {
+                event.expression = expression.length() <= MAX_EVENT_TEXT ? expression
+                        : expression.substring(0, MAX_EVENT_TEXT) + "...";
+                event.nanos = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * getter for the hit counter of an expression, callers keep the
+     * counter so an evaluation does not look it up again
+     *
+     * @param expression postfix text of the expression
+     * @return counter of the expression, shared once too many are tracked
+     */
+    static LongAdder hitCounter(String expression) {
+        LongAdder hits = HITS.get(expression);
+        if (hits == null) {
+            if (HITS.size() >= MAX_TRACKED_EXPRESSIONS) {
+                return UNTRACKED_HITS;
+            }
+            hits = HITS.computeIfAbsent(expression, e -> new LongAdder());
+        }
+
+        return hits;
+    }
+
+    /**
+     * Striped counters of one phase, the call count is the sum of the buckets
+     */
+    private static final class Counters {
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Counters() {
+            for (int b = 0; b < BUCKETS; b++) {
+                buckets[b] = new LongAdder();
+            }
+        }
+
+        void add(long nanos) {
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets[bucketOf(nanos)].increment();
+        }
+
+        void reset() {
+            totalNanos.reset();
+            maxNanos.reset();
+            for (LongAdder b : buckets) {
+                b.reset();
+            }
+        }
+
+        PhaseStats stats(Phase phase) {
+            long[] histogram = new long[BUCKETS];
+            long count = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                histogram[b] = buckets[b].sum();
+                count += histogram[b];
+            }
+            return new PhaseStats(phase, count, totalNanos.sum(), maxNanos.get(), histogram);
+        }
+    }
+
+    /**
+     * histogram bucket of a duration, bucket b holds durations
+     * from 2^b up to 2^(b+1) nanoseconds, bucket 0 also holds 0
+     */
+    static int bucketOf(long nanos) {
+        return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Counts and latency histogram of one phase at the time of a snapshot
+     */
+    public static final class PhaseStats {
+        private final Phase phase;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        PhaseStats(Phase phase, long count, long totalNanos, long maxNanos, long[] histogram) {
+            this.phase = phase;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.histogram = histogram;
+        }
+
+        /**
+         * getter for the phase
+         *
+         * @return phase these numbers are for
+         */
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * getter for the number of recorded calls
+         *
+         * @return call count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * getter for the time spent in all recorded calls
+         *
+         * @return total in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * getter for the longest recorded call
+         *
+         * @return maximum in nanoseconds, or 0 if there were no calls
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * getter for the mean duration
+         *
+         * @return mean in nanoseconds, or 0 if there were no calls
+         */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * estimates a percentile from the histogram, the result is the upper
+         * end of the bucket holding it, so it is at most twice the true value
+         *
+         * @param fraction percentile as a fraction, 0.99 for the 99th
+         * @return duration in nanoseconds, or 0 if there were no calls
+         */
+        public long getPercentileNanos(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += histogram[b];
+                if (seen >= rank) {
+                    return Math.min(maxNanos, b >= 62 ? Long.MAX_VALUE : (2L << b) - 1);
+                }
+            }
+            return maxNanos;
+        }
+
+        /**
+         * getter for the calls in each bucket, bucket b holds
+         * durations from 2^b up to 2^(b+1) nanoseconds
+         *
+         * @return copy of the histogram
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+    }
+
+    /**
+     * Metrics of every phase and the hit counts at one point in time
+     */
+    public static final class Snapshot {
+        private final EnumMap<Phase, PhaseStats> phases;
+        private final Map<String, Long> hits;
+        private final long untrackedHits;
+
+        Snapshot(EnumMap<Phase, PhaseStats> phases, Map<String, Long> hits, long untrackedHits) {
+            this.phases = phases;
+            this.hits = hits;
+            this.untrackedHits = untrackedHits;
+        }
+
+        /**
+         * getter for the metrics of one phase
+         *
+         * @param phase instrumented phase
+         * @return counts and histogram of the phase
+         */
+        public PhaseStats get(Phase phase) {
+            return phases.get(phase);
+        }
+
+        /**
+         * getter for the evaluation count of an expression
+         *
+         * @param expression postfix text of the expression
+         * @return evaluations, 0 if the expression was not tracked
+         */
+        public long getHits(String expression) {
+            return hits.getOrDefault(expression, 0L);
+        }
+
+        /**
+         * getter for the evaluations of expressions past the tracking limit
+         *
+         * @return evaluations that have no counter of their own
+         */
+        public long getUntrackedHits() {
+            return untrackedHits;
+        }
+
+        /**
+         * getter for the most evaluated expressions
+         *
+         * @param limit largest number of expressions to return
+         * @return postfix text and evaluation count, most evaluated first
+         */
+        public List<Map.Entry<String, Long>> getHottest(int limit) {
+            ArrayList<Map.Entry<String, Long>> entries = new ArrayList<>(hits.entrySet());
+            entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            return new ArrayList<>(entries.subList(0, Math.min(limit, entries.size())));
+        }
+
+        /**
+         * formats the phases as a table followed by the ten hottest expressions
+         *
+         * @return readable report
+         */
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("%-10s %12s %14s %10s %10s %10s %12s%n",
+                    "phase", "count", "total ms", "mean ns", "p50 ns", "p99 ns", "max ns"));
+            for (PhaseStats s : phases.values()) {
+                out.append(String.format("%-10s %12d %14.3f %10.0f %10d %10d %12d%n",
+                        s.getPhase().name().toLowerCase(), s.getCount(), s.getTotalNanos() / 1e6, s.getMeanNanos(),
+                        s.getPercentileNanos(0.5), s.getPercentileNanos(0.99), s.getMaxNanos()));
+            }
+            for (Map.Entry<String, Long> e : getHottest(10)) {
+                out.append(String.format("%12d  %s%n", e.getValue(), e.getKey()));
+            }
+            return out.toString();
+        }
+    }
+
+    @Name("expression.SlowEvaluation")
+    @Label("Slow Expression Evaluation")
+    @Category("Expression Tree")
+    @Description("An evaluation that took longer than the slow evaluation threshold")
+    static final class SlowEvaluationEvent extends Event {
+        @Label("Expression")
+        String expression;
+
+        @Label("Evaluation Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("expression.LargeParse")
+    @Label("Large Expression Parse")
+    @Category("Expression Tree")
+    @Description("A parsing phase over text longer than the large parse threshold")
+    static final class LargeParseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Text Length")
+        int length;
+
+        @Label("Parse Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+}
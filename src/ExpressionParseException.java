@@ -0,0 +1,28 @@
+/**
+ * Thrown when an expression cannot be parsed, with the
+ * position in the input where the problem was found
+ *
+ */
+public class ExpressionParseException extends IllegalArgumentException {
+    private final int position;
+
+    /**
+     * constructor to set the message and the position of the error
+     *
+     * @param message description of the problem
+     * @param position index in the input, counting from 0
+     */
+    public ExpressionParseException(String message, int position) {
+        super(message + " at position " + position);
+        this.position = position;
+    }
+
+    /**
+     * getter for the position of the error
+     *
+     * @return index in the input, counting from 0
+     */
+    public int getPosition() {
+        return position;
+    }
+}
@@ -1,4 +1,6 @@
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Main processing class to populate an expression tree based
@@ -11,12 +13,19 @@ import java.util.*;
  * 
  */
 public class ExpressionTree {
-    private Scanner in = new Scanner(System.in);
-    private Stack stackOne = new Stack();
-    private Hashtable <Character, Character> hashVal = new Hashtable<>();
     private TreeNode root;
+    private CompiledExpression compiled;
+    private TieredFunction function;
+    private ColumnFilter columnFilter;
     private int size;
 
+    // variables simplify removed from the tree, they keep their slots in the compiled form
+    private Set<String> removedVariables = Collections.emptySet();
+
+    // hit counter and text of the tree, looked up on the first evaluation with metrics enabled
+    private LongAdder hits;
+    private String metricsKey;
+
     /**
      * Default constructor to set all values to null
      */
@@ -26,21 +35,28 @@ public class ExpressionTree {
     }
 
     /**
-     * constructor to validate the postfix expression
-     * and populate the tree if it is valid
+     * constructor to validate the postfix expression and populate
+     * the tree in one pass with PostfixParser. Variable names
+     * longer than one letter are written as [name]
      *
      * @param postfixExp entered by the user
+     * @throws ExpressionParseException if the expression is invalid
      */
     public ExpressionTree (String postfixExp) {
-        root = null;
-
-        if (validatePostfixExp(postfixExp)) {
-            populateTree(postfixExp);
-        }
-        else {
-            throw new NullPointerException();
-        }
+        root = PostfixParser.parse(postfixExp, null).orElseThrow();
+    }
 
+    /**
+     * constructor to validate the postfix expression and populate
+     * the tree if it is valid, optionally sharing identical subtrees
+     * so that each distinct subexpression is stored and evaluated once
+     *
+     * @param postfixExp entered by the user
+     * @param shareSubexpressions true to build a shared DAG instead of a tree
+     * @throws ExpressionParseException if the expression is invalid
+     */
+    public ExpressionTree (String postfixExp, boolean shareSubexpressions) {
+        root = PostfixParser.parse(postfixExp, shareSubexpressions ? new NodeInterner() : null).orElseThrow();
     }
 
     /**
@@ -53,80 +69,18 @@ public class ExpressionTree {
     }
 
     /**
-     * Populate the tree based on the characters of the expression
-     * if it is a 0 or 1, it becomes the root of the tree and it is
-     * pushed onto the stack.
-     * if it is a binary operator, pops the existing nodes from the tree
-     * which becomes the left and right node of the binary operator in the tree
-     * if it is a unary operator, only pop the right node from the tree whice becomes
-     * the right node of the unary operator
+     * creates a tree straight from an infix expression,
+     * without translating it to postfix first
      *
-     * @param postfixExp entered by the user
+     * @param infixExp entered by the user
+     * @return tree of the expression
+     * @throws ExpressionParseException if the expression is invalid
      */
-    private void populateTree (String postfixExp) {
-        ArrayDeque<TreeNode> nodes = new ArrayDeque<>();
-        TreeNode right;
-        TreeNode left;
-
-        for (int i = 0; i < postfixExp.length(); i++) {
-            switch (postfixExp.charAt(i)) {
-                case '0':
-                    // create node, push to stack
-                    root = new TreeNode('0');
-                    nodes.push(root);
-                    break;
-
-                case '1':
-                    // create node, push to stack
-                    root = new TreeNode('1');
-                    nodes.push(root);
-                    break;
-
-                case '|':
-                    // create node with left and right subtrees attached from stack, push to stack
-                    root = new TreeNode('|');
-                    right = nodes.pop();
-                    left = nodes.pop();
-                    root.setRightNode(right);
-                    root.setLeftNode(left);
-                    nodes.push(root);
-                    break;
-
-                case '&':
-                    // create node with left and right subtrees attached from stack, push to stack
-                    root = new TreeNode('&');
-                    right = nodes.pop();
-                    left = nodes.pop();
-                    root.setRightNode(right);
-                    root.setLeftNode(left);
-                    nodes.push(root);
-                    break;
-
-                case '^':
-                    // create node with left and right subtrees attached from stack, push to stack
-                    root = new TreeNode('^');
-                    right = nodes.pop();
-                    left = nodes.pop();
-                    root.setRightNode(right);
-                    root.setLeftNode(left);
-                    nodes.push(root);
-                    break;
-
-                case '!':
-                    // create node with subtree attached, push to stack
-                    root = new TreeNode('!');
-                    right = nodes.pop();
-                    root.setRightNode(right);
-                    nodes.push(root);
-                    break;
-                default:
-                    root = new TreeNode(postfixExp.charAt(i));
-                    nodes.push(root);
-                    break;
-            }
-        }
-
-        root = nodes.pop();
+    public static ExpressionTree fromInfix(String infixExp) {
+        long start = ExpressionMetrics.start();
+        ExpressionTree tree = new ExpressionTree(InfixParser.parse(infixExp));
+        ExpressionMetrics.recordParse(ExpressionMetrics.Phase.PARSE, start, infixExp.length());
+        return tree;
     }
 
     /**
@@ -139,7 +93,7 @@ public class ExpressionTree {
      * @param postfixExp entered by the user
      * @return true if the expression is valid, vice versa
      */
-    private boolean validatePostfixExp(String postfixExp) {
+    boolean validatePostfixExp(String postfixExp) {
         boolean retval = false;
         boolean invalidExp = false;
         int counter = 0;
@@ -165,6 +119,16 @@ public class ExpressionTree {
                 }
                 counter++;
             }
+            else if (c == '[') {
+                int end = SymbolTable.bracketEnd(postfixExp, i);
+                if (end < 0) {
+                    invalidExp = true;
+                }
+                else {
+                    counter++;
+                    i = end;
+                }
+            }
 
         }
 
@@ -225,7 +189,7 @@ public class ExpressionTree {
 
     /**
      * getter for the postfix expression, which
-     * is built from the helper method
+     * is built by ExpressionWriter
      *
      *
      * @return postfix expression
@@ -233,318 +197,379 @@ public class ExpressionTree {
     public String getPostfixExp()
     {
         StringBuilder postfixExp = new StringBuilder();
-        return buildPostfixExp(root, postfixExp);
+        try {
+            writePostfixExp(postfixExp);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return postfixExp.toString();
     }
 
-
     /**
-     * builds the postfix expression based on the tree nodes
+     * writes the postfix expression to any Appendable in a single pass
      *
-     * @param node TreeNodes that have been populated from the expression
-     * @param postfixExp StringBuilder to append the characters
-     * @return postfix expression
+     * @param out destination of the expression
+     * @throws IOException if out fails
      */
-    private String buildPostfixExp(TreeNode node, StringBuilder postfixExp)
+    public void writePostfixExp(Appendable out) throws IOException
     {
-
-        // traverse the tree in postfix order to build postfix expression
-        if (node != null)
-        {
-            if (foundBinaryOp(node.getData())) {
-                buildPostfixExp(node.getLeftNode(), postfixExp);
-                buildPostfixExp(node.getRightNode(), postfixExp);
-            }
-            else if (foundUnaryOp(node.getData())) {
-                buildPostfixExp(node.getRightNode(), postfixExp);
-            }
-
-            postfixExp.append(node.getData());
-        }
-
-        return postfixExp.toString();
+        long start = ExpressionMetrics.start();
+        ExpressionWriter.writePostfix(root, out);
+        ExpressionMetrics.record(ExpressionMetrics.Phase.RENDER, start);
     }
 
-
     /**
-     * getter for the infix expression, which is built by a
-     * helper method
+     * getter for the fully parenthesized infix expression
      *
      * @return infix expression
      */
     public String getInfixExp()
     {
-        StringBuilder infixExp = new StringBuilder();
-        return buildInfixExp(root, infixExp);
+        return getInfixExp(false);
     }
 
     /**
-     * build infix expression based on the tree nodes using stringbuilder
+     * getter for the infix expression, either fully parenthesized
+     * or with only the parentheses that operator precedence needs
      *
-     * @param node root node from the tree
-     * @param infixExp StringBuilder
-     * @return  infix expression
+     * @param minimalParentheses true to leave out redundant parentheses
+     * @return infix expression
      */
-    private String buildInfixExp(TreeNode node, StringBuilder infixExp)
+    public String getInfixExp(boolean minimalParentheses)
     {
-        // traverse tree in in-fix order to create infix expression
-        if (node != null)
-        {
-            if (foundBinaryOp(node.getData())) {
-                infixExp.append("(");
-                buildInfixExp(node.getLeftNode(), infixExp);
-                infixExp.append(node.getData());
-                buildInfixExp(node.getRightNode(), infixExp);
-                infixExp.append(")");
-            }
-            else if (foundUnaryOp(node.getData())) {
-                infixExp.append("(");
-                infixExp.append(node.getData());
-                buildInfixExp(node.getRightNode(), infixExp);
-                infixExp.append(")");
-            }
-            else if (foundLiteral(node.getData())) {
-                infixExp.append(node.getData());
-            }
-
+        StringBuilder infixExp = new StringBuilder();
+        try {
+            writeInfixExp(infixExp, minimalParentheses);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
         return infixExp.toString();
     }
 
+    /**
+     * writes the infix expression to any Appendable in a single pass
+     *
+     * @param out destination of the expression
+     * @param minimalParentheses true to leave out redundant parentheses
+     * @throws IOException if out fails
+     */
+    public void writeInfixExp(Appendable out, boolean minimalParentheses) throws IOException
+    {
+        long start = ExpressionMetrics.start();
+        ExpressionWriter.writeInfix(root, out, minimalParentheses);
+        ExpressionMetrics.record(ExpressionMetrics.Phase.RENDER, start);
+    }
+
     /**
      * gettier for the prefix expression
      *
-     * @return buildPrefixExp StringBuilder for the expression
+     * @return prefix expression
      */
     public String getPrefixExp()
     {
         StringBuilder prefixExp = new StringBuilder();
-        return buildPrefixExp(root, prefixExp);
+        try {
+            writePrefixExp(prefixExp);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return prefixExp.toString();
     }
 
     /**
-     * builder for the prefix expression based on the nodes from the tree
+     * writes the prefix expression to any Appendable in a single pass
      *
-     * @param node root node from the expression tree
-     * @param prefixExp StringBuilder for prefix expression
-     * @return prefix expression string
+     * @param out destination of the expression
+     * @throws IOException if out fails
      */
-    private String buildPrefixExp(TreeNode node, StringBuilder prefixExp)
+    public void writePrefixExp(Appendable out) throws IOException
     {
-        // traverse tree in prefix order to create prefix expression
-        if ( node != null )
-        {
-            prefixExp.append(node.getData());
-            buildPrefixExp(node.getLeftNode(), prefixExp);
-            buildPrefixExp(node.getRightNode(), prefixExp);
-        }
-        return prefixExp.toString();
+        long start = ExpressionMetrics.start();
+        ExpressionWriter.writePrefix(root, out);
+        ExpressionMetrics.record(ExpressionMetrics.Phase.RENDER, start);
     }
 
     /**
-     * getter method for the evaluate value,
-     * if the helper method returns 0 then it is false
-     * else it is true
+     * simplifies the tree in place with constant folding and the
+     * identity, annihilator, double negation, idempotence and
+     * absorption laws. Every evaluation after this uses the simplified tree,
+     * and variables which drop out of it keep their slots, so assignments
+     * created before still fit. An empty tree is left as it is
      *
-     * @return false if retval is zero
+     * @return node counts before and after the simplification
      */
-    public boolean evaluate() {
-        char retval = evaluate(root);
+    public Simplifier.Report simplify() {
+        Simplifier.Report report = Simplifier.simplify(root);
+        if (root != null) {
+            Set<String> variables = new HashSet<>(removedVariables);
+            variables.addAll(CompiledExpression.variableNames(root));
+            variables.removeAll(CompiledExpression.variableNames(report.getRoot()));
+            removedVariables = variables;
+        }
+        root = report.getRoot();
+        compiled = null;
+        function = null;
+        columnFilter = null;
+        hits = null;
+        return report;
+    }
 
-        if (retval == '0') {
-            return false;
-        }
-        else {
-            return true;
+    /**
+     * getter for the number of distinct nodes in the tree
+     *
+     * @return node count
+     */
+    public int getNodeCount() {
+        return Simplifier.countNodes(root);
+    }
+
+    /**
+     * creates an immutable copy of the tree which can be
+     * shared and evaluated by many threads at once
+     *
+     * @return immutable expression
+     */
+    public Expression freeze() {
+        return Expression.of(root, removedVariables);
+    }
+
+    /**
+     * getter for the compiled form of the tree, which is
+     * built the first time it is needed
+     *
+     * @return compiled expression
+     */
+    public CompiledExpression compile() {
+        if (compiled == null) {
+            compiled = CompiledExpression.compile(root, removedVariables);
         }
 
+        return compiled;
     }
 
     /**
-     * evaluate each node and its left and right child to see if
-     * any of the nodes are letters, if so pass on to another method
-     * which grabs the value from the user
+     * getter method for the evaluate value, grabs the value of
+     * every variable from the user on the console and then
+     * evaluates the expression with those values
      *
-     * @param n node from the tree
-     * @return evaluateExp char value
+     * @return result of the expression
      */
-    private char evaluate (TreeNode n) {
+    public boolean evaluate() {
+        return evaluate(ConsoleAssignmentProvider.systemIn());
+    }
 
-        if (n.getLeftNode() == null && n.getRightNode() == null) {
-            return n.getData();
-        }
-        else {
-            char retval = ' ';
-            char L = ' ';
-            char R = evaluate(n.getRightNode());
-            if (n.getLeftNode() != null) {
-                L = evaluate(n.getLeftNode());
-            }
-            if (Character.isLetter(L) || Character.isLetter(R)) {
-                if (Character.isDigit(L)) {
-                    L = n.getLeftNode().getData();
-                    R = getValue(R);
-                }
-                else if (Character.isDigit(R)) {
-                    L = getValue(L);
-                    R = n.getRightNode().getData();
+    /**
+     * evaluates the expression with values taken from a provider,
+     * which is asked once for each variable
+     *
+     * @param provider source of the variable values
+     * @return result of the expression
+     */
+    public boolean evaluate(AssignmentProvider provider) {
+        return evaluate(newAssignment().fill(provider));
+    }
+
+    /**
+     * evaluates the expression with the values bound in an assignment,
+     * without any console input
+     *
+     * @param assignment values created by newAssignment
+     * @return result of the expression
+     */
+    public boolean evaluate(Assignment assignment) {
+        // compiling on the first call is not part of the evaluation
+        TieredFunction f = function();
+        long start = ExpressionMetrics.start();
+        boolean result = f.evaluate(assignment);
+
+        if (start != 0L) {
+            long nanos = System.nanoTime() - start;
+            if (hits == null) {
+                // built without going through the render metrics
+                StringBuilder key = new StringBuilder();
+                try {
+                    ExpressionWriter.writePostfix(root, key);
                 }
-                else {
-                    L = getValue(L);
-                    R = getValue(R);
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+                metricsKey = key.toString();
+                hits = ExpressionMetrics.hitCounter(metricsKey);
             }
-
-            char op = n.getData();
-            return evaluateExp(L, R, op);
-
+            ExpressionMetrics.recordEvaluation(nanos, hits, metricsKey);
         }
+        return result;
     }
 
     /**
-     * evaluate the expression based on the operator and the left
-     * and right child, based on the operator type, call different
-     * helper method to determine the result
+     * getter for the evaluator of the tree, which interprets the
+     * compiled form until it is hot and then runs generated bytecode
      *
-     * @param l left node
-     * @param r right node
-     * @param op operator
-     * @return char value of 0 or 1
+     * @return tiered evaluator
      */
-    private char evaluateExp(char l, char r, char op) {
-        char retval = ' ';
-
-        if (op == '!') {
-            retval = NOTop(r);
-        }
-        else if (op == '&') {
-            retval = ANDop(l, r);
-        }
-        else if (op == '|') {
-            retval = ORop(l, r);
-        }
-        else if (op == '^') {
-            retval = XORop(l, r);
+    public TieredFunction function() {
+        if (function == null) {
+            function = new TieredFunction(compile());
         }
 
-        return retval;
+        return function;
     }
 
     /**
-     * checks to see if the comparison returns true(1) or
-     * false (0) based on the operator AND
+     * creates a reusable assignment for the variables of the tree
      *
-     * @param l left node
-     * @param r right node
-     * @return 1 or 0
+     * @return assignment with every variable false
      */
-    private char ANDop(char l, char r) {
-        char retval;
-
-        if (l == '1' && r == '1') {
-            retval = 1;
-        }
-        else if (l == '0' && r == '0') {
-            retval = 1;
-        }
-        else {
-            retval = 0;
-        }
-
-        return retval;
+    public Assignment newAssignment() {
+        return compile().newAssignment();
     }
 
     /**
-     * checks to see if the comparison returns true(1) or
-     * false (0) based on the operator OR
+     * creates a lazy evaluator for the tree which short circuits
+     * {@code &} and {@code |} and only resolves the variables it needs
      *
-     * @param l left node
-     * @param r right node
-     * @return 1 or 0
+     * @param adaptive true to reorder operands based on runtime statistics
+     * @return short circuit evaluator
      */
-    private char ORop(char l, char r) {
-        char retval;
+    public ShortCircuitEvaluator newShortCircuitEvaluator(boolean adaptive) {
+        return new ShortCircuitEvaluator(root, adaptive);
+    }
 
-        if (l == '1' || r == '1') {
-            retval = '1';
-        }
-        else {
-            retval = '0';
-        }
+    /**
+     * creates an evaluator which keeps the value of every node and
+     * recomputes only what a changed variable affects
+     *
+     * @return incremental evaluator with every variable false
+     */
+    public IncrementalEvaluator newIncrementalEvaluator() {
+        return new IncrementalEvaluator(root);
+    }
 
-        return retval;
+    /**
+     * creates an evaluator which splits large trees into
+     * subtrees evaluated on the common fork/join pool
+     *
+     * @return parallel evaluator
+     */
+    public ParallelEvaluator newParallelEvaluator() {
+        return new ParallelEvaluator(CompactTree.of(root));
     }
 
     /**
-     *checks to see if the comparison returns true(1) or
-     * false (0) based on the operator NOT
+     * builds the binary decision diagram of the tree in a manager
      *
-     * @param r right node
-     * @return 1 or 0
+     * @param manager diagram manager holding every variable of the tree
+     * @return diagram node
      */
-    private char NOTop(char r) {
-        char retval;
+    public int toBdd(Bdd manager) {
+        return manager.build(root);
+    }
 
-        if (r == '0') {
-            retval = '1';
-        }
-        else {
-            retval = '0';
-        }
+    /**
+     * checks whether two expressions have the same value for every
+     * assignment, by asking a SAT solver for an assignment where they differ
+     *
+     * @param other the other expression
+     * @return true if the expressions are equivalent
+     */
+    public boolean isEquivalent(ExpressionTree other) {
+        SatSolver solver = new SatSolver();
+        CnfEncoder encoder = new CnfEncoder(solver);
+        int a = encoder.encode(root);
+        int b = encoder.encode(other.root);
+
+        // the two differ exactly when one is true and the other false
+        return solver.solve(a, -b) == SatSolver.Result.UNSATISFIABLE
+                && solver.solve(-a, b) == SatSolver.Result.UNSATISFIABLE;
+    }
 
-        return retval;
+    /**
+     * checks whether some assignment makes the expression true
+     *
+     * @return true if the expression is satisfiable
+     */
+    public boolean isSatisfiable() {
+        SatSolver solver = new SatSolver();
+        return solver.solve(new CnfEncoder(solver).encode(root)) == SatSolver.Result.SATISFIABLE;
     }
 
     /**
-     * checks to see if the comparison returns true(1) or
-     * false (0) based on the operator XOR
+     * checks whether every assignment makes the expression true,
+     * which holds when its negation has no model
      *
-     * @param l left node
-     * @param r right node
-     * @return 1 or 0
+     * @return true if the expression is a tautology
      */
-    private char XORop(char l, char r) {
-        char retval;
+    public boolean isTautology() {
+        SatSolver solver = new SatSolver();
+        return solver.solve(-new CnfEncoder(solver).encode(root)) == SatSolver.Result.UNSATISFIABLE;
+    }
 
-        if (l == '0' && r == '1') {
-            retval = '1';
-        }
-        else if (l == '1' && r == '0') {
-            retval = '1';
+    /**
+     * finds an assignment which makes the expression true
+     *
+     * @return satisfying assignment, or null if the expression is unsatisfiable
+     */
+    public Assignment findSatisfyingAssignment() {
+        SatSolver solver = new SatSolver();
+        CnfEncoder encoder = new CnfEncoder(solver);
+        if (solver.solve(encoder.encode(root)) != SatSolver.Result.SATISFIABLE) {
+            return null;
         }
-        else {
-            retval = '0';
+
+        Assignment assignment = newAssignment();
+        for (int slot = 0; slot < assignment.size(); slot++) {
+            assignment.set(slot, solver.modelValue(encoder.variableOf(assignment.getVariable(slot))));
         }
+        return assignment;
+    }
 
-        return retval;
+    /**
+     * builds the truth table of the expression, evaluating
+     * 64 assignments per pass over the compiled form
+     *
+     * @return truth table over every assignment of the variables
+     */
+    public TruthTable truthTable() {
+        return TruthTable.of(compile());
     }
 
     /**
-     * grab the value of a letter from the user, which can
-     * only be 1 or 0
+     * uses the expression as a row filter over bit packed columns,
+     * evaluating 64 rows per word
      *
+     * @param columns one column per variable, bit r holds the value in row r
+     * @param rows number of rows
+     * @return result bitmap, bit r is set if row r passes the filter
+     */
+    public long[] filter(Map<String, long[]> columns, int rows) {
+        return columnFilter().filter(columns, rows);
+    }
+
+    /**
+     * uses the expression as a row filter over bit set columns
      *
-     * @param c letter in the expression
-     * @return 1 or 0
+     * @param columns one column per variable, bit r holds the value in row r
+     * @param rows number of rows
+     * @return bit set of the rows that pass the filter
      */
-    private char getValue(char c) {
-        char inp;
+    public BitSet filterBits(Map<String, BitSet> columns, int rows) {
+        return columnFilter().filterBits(columns, rows);
+    }
 
-        if (hashVal.containsKey(c)) {
-            inp = hashVal.get(c);
-        }
-        else {
-            System.out.println("Enter a value ('0' or '1') for variable:" + c);
-            inp = in.nextLine().charAt(0);
-            if (inp == '0' || inp == '1') {
-                hashVal.put(c, inp);
-            }
-            else {
-                System.out.println("The number you have entered is invalid.");
-                System.out.println("Please enter '0' or '1': ");
-            }
+    /**
+     * getter for the filter of the tree, made on first use
+     * so its compiled runs and buffers are kept between calls
+     *
+     * @return column filter
+     */
+    private ColumnFilter columnFilter() {
+        if (columnFilter == null) {
+            columnFilter = new ColumnFilter(compile());
         }
-
-        return inp;
+        return columnFilter;
     }
 
     /** Translates an infix expression to a postfix expression using the shunting yard algorithm
@@ -552,7 +577,8 @@ public class ExpressionTree {
      * The following steps are performed :
      * <ul>While there are tokens to be read:
      * <li>Read a token.
-     * <li>If the token is a boolean, then push it to the output queue.
+     * <li>If the token is a boolean or a variable name, then push it to the output queue,
+     * <li>  with names longer than one letter written as [name].
      * <li>If the token is an operator, o1, then:
      * <li>  while there is an operator token o2, at the top of the operator stack and its precedence is less than or equal to that of o2
      * <li>    pop o2 off the operator stack, onto the output queue;
@@ -572,12 +598,22 @@ public class ExpressionTree {
      */
     public String translateToPostfix(String infix)
     {
+        long start = ExpressionMetrics.start();
         StringBuilder postfix = new StringBuilder();
         Stack<String> operator = new Stack<>();
 
         // perform shunting yard algorithm
 
-        for (String token: infix.split("")) {
+        for (int i = 0; i < infix.length(); i++) {
+            // a variable name is the longest run of identifier characters
+            if (SymbolTable.isIdentifierStart(infix.charAt(i))) {
+                int end = SymbolTable.identifierEnd(infix, i);
+                SymbolTable.appendBracketed(infix.substring(i, end), postfix);
+                i = end - 1;
+                continue;
+            }
+
+            String token = String.valueOf(infix.charAt(i));
             if (ops.containsKey(token)) {
                 while (!operator.isEmpty() && GreaterPrec(token, operator.peek())) {
                     postfix.append(operator.pop());
@@ -602,38 +638,60 @@ public class ExpressionTree {
             postfix.append(operator.pop());
         }
 
+        ExpressionMetrics.recordParse(ExpressionMetrics.Phase.TRANSLATE, start, infix.length());
+
         // return the postfix expression as a String
         return postfix.toString();
     }
 
     /**
-     * enum class for the operators and its precedence
+     * enum class for the operators and its precedence,
+     * a lower precedence value binds tighter
      */
-    private enum Operator {
-        NOT(1), AND(2), XOR(3), OR(4);
+    enum Operator {
+        NOT('!', 1), AND('&', 2), XOR('^', 3), OR('|', 4);
+        final char symbol;
         final int precedence;
-        Operator(int p) { precedence = p; }
+        Operator(char s, int p) { symbol = s; precedence = p; }
+
+        /**
+         * looks up the operator for a symbol
+         *
+         * @param c character from the expression
+         * @return the operator, or null if c is not an operator
+         */
+        static Operator of(char c) {
+            switch (c) {
+                case '!': return NOT;
+                case '&': return AND;
+                case '^': return XOR;
+                case '|': return OR;
+                default: return null;
+            }
+        }
     }
 
     /**
      * assigns each operator with its symbol
      */
-    private Map<String, Operator> ops = new HashMap<>() {{
-        put("!", Operator.NOT);
-        put("&", Operator.AND);
-        put("^", Operator.XOR);
-        put("|", Operator.OR);
-    }};
+    private static final Map<String, Operator> ops = Map.of(
+        "!", Operator.NOT,
+        "&", Operator.AND,
+        "^", Operator.XOR,
+        "|", Operator.OR);
 
     /**
-     * checks to see if the operator has greater precedence than the other
+     * checks to see if the operator on the stack binds at least as tight
+     * as the operator from the string, so it has to be popped first.
+     * the unary operator is right associative and never pops anything
      *
      * @param op operator from the string
      * @param sub another operator from the stack
      * @return true or false
      */
     private boolean GreaterPrec(String op, String sub) {
-        return (ops.containsKey(sub) && ops.get(sub).precedence >= ops.get(op).precedence);
+        return (ops.containsKey(sub) && ops.get(op) != Operator.NOT
+                && ops.get(sub).precedence <= ops.get(op).precedence);
     }
 
 
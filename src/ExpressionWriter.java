@@ -0,0 +1,225 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Renders expression trees as postfix, infix or prefix text straight
+ * into an Appendable. Each renderer walks the tree once with an explicit
+ * stack of pending work, so output is linear in the size of the tree
+ * and deep trees do not overflow the call stack.
+ *
+ * The pending stack holds nodes still to be expanded together with
+ * the operator symbols and parentheses to write between them.
+ *
+ */
+public final class ExpressionWriter {
+    private static final String OPEN = "(";
+    private static final String CLOSE = ")";
+
+    private ExpressionWriter() {
+    }
+
+    /**
+     * writes the tree in postfix order
+     *
+     * @param root root node of the tree
+     * @param out destination of the expression
+     * @throws IOException if out fails
+     */
+    public static void writePostfix(TreeNode root, Appendable out) throws IOException {
+        ArrayDeque<Object> pending = start(root);
+
+        while (!pending.isEmpty()) {
+            Object item = pending.pop();
+            if (!(item instanceof TreeNode)) {
+                out.append((Character) item);
+                continue;
+            }
+
+            TreeNode node = (TreeNode) item;
+            if (foundBinaryOp(node.getData())) {
+                pending.push(node.getData());
+                pending.push(node.getRightNode());
+                pending.push(node.getLeftNode());
+            }
+            else if (foundUnaryOp(node.getData())) {
+                pending.push(node.getData());
+                pending.push(node.getRightNode());
+            }
+            else {
+                writeLeaf(node, out, true);
+            }
+        }
+    }
+
+    /**
+     * writes the tree in prefix order
+     *
+     * @param root root node of the tree
+     * @param out destination of the expression
+     * @throws IOException if out fails
+     */
+    public static void writePrefix(TreeNode root, Appendable out) throws IOException {
+        ArrayDeque<Object> pending = start(root);
+
+        while (!pending.isEmpty()) {
+            TreeNode node = (TreeNode) pending.pop();
+
+            writeLeaf(node, out, true);
+            if (node.getRightNode() != null) {
+                pending.push(node.getRightNode());
+            }
+            if (node.getLeftNode() != null) {
+                pending.push(node.getLeftNode());
+            }
+        }
+    }
+
+    /**
+     * writes the tree in infix order. Fully parenthesized output wraps
+     * every operator, minimal output only wraps a subexpression when its
+     * operator binds looser than its parent, or as loose when it is the
+     * right operand, so the text parses back into the same tree
+     *
+     * @param root root node of the tree
+     * @param out destination of the expression
+     * @param minimalParentheses true to leave out redundant parentheses
+     * @throws IOException if out fails
+     */
+    public static void writeInfix(TreeNode root, Appendable out, boolean minimalParentheses) throws IOException {
+        ArrayDeque<Object> pending = start(root);
+
+        while (!pending.isEmpty()) {
+            Object item = pending.pop();
+            if (item instanceof String) {
+                out.append((String) item);
+                continue;
+            }
+            if (item instanceof Character) {
+                out.append((Character) item);
+                continue;
+            }
+
+            TreeNode node = (TreeNode) item;
+            ExpressionTree.Operator op = ExpressionTree.Operator.of(node.getData());
+
+            if (op == null) {
+                if (foundLiteral(node.getData())) {
+                    writeLeaf(node, out, false);
+                }
+            }
+            else if (!minimalParentheses) {
+                pending.push(CLOSE);
+                pending.push(node.getRightNode());
+                pending.push(node.getData());
+                if (op != ExpressionTree.Operator.NOT) {
+                    pending.push(node.getLeftNode());
+                }
+                pending.push(OPEN);
+            }
+            else if (op == ExpressionTree.Operator.NOT) {
+                pushOperand(pending, node.getRightNode(), op, true);
+                pending.push(node.getData());
+            }
+            else {
+                pushOperand(pending, node.getRightNode(), op, true);
+                pending.push(node.getData());
+                pushOperand(pending, node.getLeftNode(), op, false);
+            }
+        }
+    }
+
+    /**
+     * creates the pending stack with the root on it
+     *
+     * @param root root node of the tree
+     * @return pending work stack
+     */
+    private static ArrayDeque<Object> start(TreeNode root) {
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        if (root != null) {
+            pending.push(root);
+        }
+
+        return pending;
+    }
+
+    /**
+     * pushes an operand of an operator for minimal infix output,
+     * wrapped in parentheses only if precedence requires it
+     *
+     * @param pending pending work stack
+     * @param child operand node
+     * @param parent operator the operand belongs to
+     * @param right true for the right operand
+     */
+    private static void pushOperand(ArrayDeque<Object> pending, TreeNode child, ExpressionTree.Operator parent,
+                                    boolean right) {
+        ExpressionTree.Operator op = ExpressionTree.Operator.of(child.getData());
+        boolean parens = false;
+
+        if (op != null && op != ExpressionTree.Operator.NOT) {
+            parens = parent == ExpressionTree.Operator.NOT
+                    || op.precedence > parent.precedence
+                    || (right && op.precedence == parent.precedence);
+        }
+
+        if (parens) {
+            pending.push(CLOSE);
+        }
+        pending.push(child);
+        if (parens) {
+            pending.push(OPEN);
+        }
+    }
+
+    /**
+     * writes the symbol of a node, or the name of a variable,
+     * in brackets for postfix and prefix text if it is longer than a letter
+     *
+     * @param node node to write
+     * @param out destination of the expression
+     * @param bracketed true for postfix and prefix text
+     * @throws IOException if out fails
+     */
+    private static void writeLeaf(TreeNode node, Appendable out, boolean bracketed) throws IOException {
+        if (!Character.isLetter(node.getData())) {
+            out.append(node.getData());
+        }
+        else if (bracketed) {
+            SymbolTable.appendBracketed(node.getName(), out);
+        }
+        else {
+            out.append(node.getName());
+        }
+    }
+
+    /**
+     * checks to see if the character is a literal
+     *
+     * @param c character from the expression
+     * @return true is is literal
+     */
+    private static boolean foundLiteral(char c) {
+        return Character.isLetter(c) || c == '1' || c == '0';
+    }
+
+    /**
+     * checks to see if the character is a binary operator
+     *
+     * @param c character from the expression
+     * @return true if c is a binary operator
+     */
+    private static boolean foundBinaryOp(char c) {
+        return c == '&' || c == '|' || c == '^';
+    }
+
+    /**
+     * checks to see if the character is an unary operator
+     *
+     * @param c character from the expression
+     * @return true if c is an unary operator
+     */
+    private static boolean foundUnaryOp(char c) {
+        return c == '!';
+    }
+}
@@ -0,0 +1,371 @@
+import java.util.*;
+
+/**
+ * Evaluator for a fixed expression whose inputs change one variable at
+ * a time. The value of every node is cached, and setting a variable only
+ * recomputes the nodes above its leaves, stopping at any node whose value
+ * does not change. Listeners are told whenever the value of the whole
+ * expression flips.
+ *
+ * The distinct nodes are numbered in post-order, so a parent always has
+ * a higher number than its children, and each node keeps the list of its
+ * parents. Changed nodes are recomputed in ascending order from a heap,
+ * so in a shared DAG a node with several changed children is recomputed
+ * once, after all of them.
+ *
+ * All variables start out false. The evaluator keeps state between
+ * calls, so an instance must not be shared between threads.
+ *
+ */
+public final class IncrementalEvaluator {
+    /**
+     * Callback for changes of the value of the whole expression
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * called after a set has flipped the value of the expression
+         *
+         * @param variable variable that was set
+         * @param value new value of the expression
+         */
+        void valueChanged(String variable, boolean value);
+    }
+
+    private final char[] data;
+    private final int[] left;
+    private final int[] right;
+    private final int[] slot;
+    private final boolean[] value;
+    private final int root;
+
+    // parents of node i are parentList[parentStart[i] .. parentStart[i + 1])
+    private final int[] parentStart;
+    private final int[] parentList;
+
+    // leaves of slot s are leafList[leafStart[s] .. leafStart[s + 1])
+    private final SymbolTable symbols;
+    private final boolean[] variableValue;
+    private final int[] leafStart;
+    private final int[] leafList;
+
+    // min-heap of nodes waiting to be recomputed
+    private final int[] heap;
+    private final boolean[] queued;
+    private int heapSize;
+
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+    private long lastRecomputed;
+    private long totalRecomputed;
+
+    /**
+     * constructor to prepare the evaluator for a tree and
+     * evaluate it once with every variable false
+     *
+     * @param tree root node of the tree
+     */
+    public IncrementalEvaluator(TreeNode tree) {
+        // number the distinct nodes in post-order, children before their parents
+        IdentityHashMap<TreeNode, Integer> index = new IdentityHashMap<>();
+        ArrayList<TreeNode> order = new ArrayList<>();
+        TreeSet<String> names = new TreeSet<>();
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(tree);
+
+        while (!pending.isEmpty()) {
+            TreeNode n = pending.peek();
+            if (index.containsKey(n)) {
+                pending.pop();
+                continue;
+            }
+
+            boolean ready = true;
+            if (n.getRightNode() != null && !index.containsKey(n.getRightNode())) {
+                pending.push(n.getRightNode());
+                ready = false;
+            }
+            if (n.getLeftNode() != null && !index.containsKey(n.getLeftNode())) {
+                pending.push(n.getLeftNode());
+                ready = false;
+            }
+
+            if (ready) {
+                pending.pop();
+                index.put(n, order.size());
+                order.add(n);
+                if (Character.isLetter(n.getData())) {
+                    names.add(n.getName());
+                }
+            }
+        }
+
+        int size = order.size();
+        symbols = SymbolTable.sorted(names);
+        data = new char[size];
+        left = new int[size];
+        right = new int[size];
+        value = new boolean[size];
+        root = size - 1;
+        slot = new int[size];
+        parentStart = new int[size + 1];
+        leafStart = new int[symbols.size() + 1];
+
+        for (int i = 0; i < size; i++) {
+            TreeNode n = order.get(i);
+            data[i] = n.getData();
+            left[i] = n.getLeftNode() == null ? -1 : index.get(n.getLeftNode());
+            right[i] = n.getRightNode() == null ? -1 : index.get(n.getRightNode());
+            slot[i] = Character.isLetter(data[i]) ? symbols.slotOf(n.getName()) : -1;
+
+            if (left[i] >= 0) {
+                parentStart[left[i] + 1]++;
+            }
+            if (right[i] >= 0 && right[i] != left[i]) {
+                parentStart[right[i] + 1]++;
+            }
+            if (slot[i] >= 0) {
+                leafStart[slot[i] + 1]++;
+            }
+        }
+
+        // turn the counts into start offsets and fill the lists
+        for (int i = 0; i < size; i++) {
+            parentStart[i + 1] += parentStart[i];
+        }
+        for (int s = 0; s < symbols.size(); s++) {
+            leafStart[s + 1] += leafStart[s];
+        }
+
+        parentList = new int[parentStart[size]];
+        leafList = new int[leafStart[symbols.size()]];
+        int[] parentFill = Arrays.copyOf(parentStart, size);
+        int[] leafFill = Arrays.copyOf(leafStart, symbols.size());
+
+        for (int i = 0; i < size; i++) {
+            if (left[i] >= 0) {
+                parentList[parentFill[left[i]]++] = i;
+            }
+            if (right[i] >= 0 && right[i] != left[i]) {
+                parentList[parentFill[right[i]]++] = i;
+            }
+            if (slot[i] >= 0) {
+                leafList[leafFill[slot[i]]++] = i;
+            }
+        }
+
+        variableValue = new boolean[symbols.size()];
+        heap = new int[size];
+        queued = new boolean[size];
+
+        // children come first, so one pass in order evaluates everything
+        for (int i = 0; i < size; i++) {
+            value[i] = compute(i);
+        }
+    }
+
+    /**
+     * sets a variable and recomputes the nodes it affects
+     *
+     * @param variable variable name
+     * @param newValue new value of the variable
+     * @return value of the expression afterwards
+     */
+    public boolean set(String variable, boolean newValue) {
+        int s = symbols.slotOf(variable);
+        if (s < 0) {
+            throw new IllegalArgumentException("Unknown variable " + variable);
+        }
+
+        return set(s, newValue);
+    }
+
+    /**
+     * sets the variable in a slot and recomputes the nodes it affects
+     *
+     * @param s variable slot, in alphabetical order of the names
+     * @param newValue new value of the variable
+     * @return value of the expression afterwards
+     */
+    public boolean set(int s, boolean newValue) {
+        lastRecomputed = 0;
+        if (variableValue[s] == newValue) {
+            return value[root];
+        }
+
+        boolean before = value[root];
+        variableValue[s] = newValue;
+        for (int k = leafStart[s]; k < leafStart[s + 1]; k++) {
+            value[leafList[k]] = newValue;
+            enqueueParents(leafList[k]);
+        }
+
+        while (heapSize > 0) {
+            int i = poll();
+            lastRecomputed++;
+
+            boolean v = compute(i);
+            if (v != value[i]) {
+                value[i] = v;
+                enqueueParents(i);
+            }
+        }
+
+        totalRecomputed += lastRecomputed;
+        if (value[root] != before) {
+            for (Listener listener : listeners) {
+                listener.valueChanged(symbols.nameOf(s), value[root]);
+            }
+        }
+
+        return value[root];
+    }
+
+    /**
+     * getter for the current value of the expression
+     *
+     * @return value of the root node
+     */
+    public boolean getValue() {
+        return value[root];
+    }
+
+    /**
+     * getter for the current value of a variable
+     *
+     * @param variable variable name
+     * @return value of the variable
+     */
+    public boolean get(String variable) {
+        int s = symbols.slotOf(variable);
+        if (s < 0) {
+            throw new IllegalArgumentException("Unknown variable " + variable);
+        }
+
+        return variableValue[s];
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * getter for the number of operator nodes the last set recomputed
+     *
+     * @return recomputed nodes
+     */
+    public long getLastRecomputed() {
+        return lastRecomputed;
+    }
+
+    /**
+     * getter for the number of operator nodes recomputed by every set so far
+     *
+     * @return recomputed nodes
+     */
+    public long getTotalRecomputed() {
+        return totalRecomputed;
+    }
+
+    /**
+     * getter for the number of distinct nodes
+     *
+     * @return node count
+     */
+    public int size() {
+        return data.length;
+    }
+
+    /**
+     * getter for the number of variables
+     *
+     * @return variable count
+     */
+    public int getVariableCount() {
+        return symbols.size();
+    }
+
+    /**
+     * getter for the name of the variable in a slot
+     *
+     * @param s variable slot
+     * @return variable name
+     */
+    public String getVariable(int s) {
+        return symbols.nameOf(s);
+    }
+
+    /**
+     * computes a node from the cached values of its children
+     */
+    private boolean compute(int i) {
+        switch (data[i]) {
+            case '0':
+                return false;
+            case '1':
+                return true;
+            case '!':
+                return !value[right[i]];
+            case '&':
+                return value[left[i]] & value[right[i]];
+            case '|':
+                return value[left[i]] | value[right[i]];
+            case '^':
+                return value[left[i]] ^ value[right[i]];
+            default:
+                return variableValue[slot[i]];
+        }
+    }
+
+    private void enqueueParents(int i) {
+        for (int k = parentStart[i]; k < parentStart[i + 1]; k++) {
+            int p = parentList[k];
+            if (!queued[p]) {
+                queued[p] = true;
+                offer(p);
+            }
+        }
+    }
+
+    private void offer(int node) {
+        int k = heapSize++;
+
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (heap[parent] <= node) {
+                break;
+            }
+            heap[k] = heap[parent];
+            k = parent;
+        }
+        heap[k] = node;
+    }
+
+    private int poll() {
+        int result = heap[0];
+        int last = heap[--heapSize];
+        int k = 0;
+
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = last;
+
+        queued[result] = false;
+        return result;
+    }
+}
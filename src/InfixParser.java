@@ -0,0 +1,216 @@
+import java.util.*;
+
+/**
+ * Single pass shunting yard parser which builds an expression tree
+ * straight from an infix expression, reading it one char at a time.
+ * Operands are kept on a stack of nodes and each operator is turned
+ * into a node as soon as it is popped, so no postfix string is built.
+ *
+ * Variable names are the longest run of letters, digits and underscores
+ * starting with a letter. Whitespace is skipped. ! binds tightest, followed
+ * by {@code &}, ^ and |, binary operators are left associative and ! is
+ * right associative.
+ *
+ */
+public final class InfixParser {
+    private final NodeInterner interner;
+    private final CompactTree.Builder builder;
+    private final SymbolTable symbols = new SymbolTable();
+    private TreeNode[] nodes = new TreeNode[16];
+    private int nodeCount;
+    private char[] ops = new char[16];
+    private int[] opPositions = new int[16];
+    private int opCount;
+
+    /**
+     * constructor to set where the nodes go
+     *
+     * @param interner shares identical nodes, or null for a plain tree
+     * @param builder receives the nodes of a compact tree, or null to build nodes
+     */
+    private InfixParser(NodeInterner interner, CompactTree.Builder builder) {
+        this.interner = interner;
+        this.builder = builder;
+    }
+
+    /**
+     * parses an infix expression into a tree
+     *
+     * @param infix infix expression
+     * @return root node of the tree
+     * @throws ExpressionParseException if the expression is invalid
+     */
+    public static TreeNode parse(CharSequence infix) {
+        return parse(infix, null);
+    }
+
+    /**
+     * parses an infix expression, creating the nodes through an
+     * interner so identical subexpressions are shared
+     *
+     * @param infix infix expression
+     * @param interner shares identical nodes, or null for a plain tree
+     * @return root node of the tree
+     * @throws ExpressionParseException if the expression is invalid
+     */
+    public static TreeNode parse(CharSequence infix, NodeInterner interner) {
+        return new InfixParser(interner, null).run(infix);
+    }
+
+    /**
+     * parses an infix expression into a compact tree, the nodes are
+     * appended to the arrays in the order they are reduced, which is
+     * already post-order, so no node objects are created
+     *
+     * @param infix infix expression
+     * @return compact tree
+     * @throws ExpressionParseException if the expression is invalid
+     */
+    static CompactTree parseCompact(CharSequence infix) {
+        CompactTree.Builder builder = new CompactTree.Builder(infix.length());
+        new InfixParser(null, builder).run(infix);
+        return builder.build(infix.length());
+    }
+
+    /**
+     * runs the shunting yard algorithm over the expression
+     *
+     * @param infix infix expression
+     * @return root node of the tree, or null when filling a builder
+     */
+    private TreeNode run(CharSequence infix) {
+        boolean expectOperand = true;
+
+        for (int i = 0; i < infix.length(); i++) {
+            char c = infix.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+
+            if (expectOperand) {
+                if (c == '(' || c == '!') {
+                    pushOp(c, i);
+                }
+                else if (SymbolTable.isIdentifierStart(c)) {
+                    int end = SymbolTable.identifierEnd(infix, i);
+                    variable(symbols.nameOf(symbols.intern(infix.subSequence(i, end).toString())), i);
+                    i = end - 1;
+                    expectOperand = false;
+                }
+                else if (c == '0' || c == '1') {
+                    operand(c, i);
+                    expectOperand = false;
+                }
+                else {
+                    throw new ExpressionParseException("Expected an operand but found '" + c + "'", i);
+                }
+            }
+            else if (c == '&' || c == '|' || c == '^') {
+                int precedence = ExpressionTree.Operator.of(c).precedence;
+                while (opCount > 0 && ops[opCount - 1] != '('
+                        && ExpressionTree.Operator.of(ops[opCount - 1]).precedence <= precedence) {
+                    reduce();
+                }
+                pushOp(c, i);
+                expectOperand = true;
+            }
+            else if (c == ')') {
+                while (opCount > 0 && ops[opCount - 1] != '(') {
+                    reduce();
+                }
+                if (opCount == 0) {
+                    throw new ExpressionParseException("Unmatched ')'", i);
+                }
+                opCount--;
+            }
+            else {
+                throw new ExpressionParseException("Expected an operator but found '" + c + "'", i);
+            }
+        }
+
+        if (expectOperand) {
+            throw new ExpressionParseException("Expected an operand but the expression ended", infix.length());
+        }
+
+        while (opCount > 0) {
+            if (ops[opCount - 1] == '(') {
+                throw new ExpressionParseException("Unmatched '('", opPositions[opCount - 1]);
+            }
+            reduce();
+        }
+
+        return builder == null ? nodes[0] : null;
+    }
+
+    /**
+     * pops the top operator and turns it into a node
+     * with its operands taken from the node stack
+     */
+    private void reduce() {
+        char op = ops[--opCount];
+        if (builder != null) {
+            builder.add(op, opPositions[opCount]);
+            return;
+        }
+
+        TreeNode right = nodes[--nodeCount];
+        TreeNode left = null;
+
+        if (op != '!') {
+            left = nodes[--nodeCount];
+        }
+
+        pushNode(node(op, left, right));
+    }
+
+    private void operand(char c, int position) {
+        if (builder != null) {
+            builder.add(c, position);
+        }
+        else {
+            pushNode(node(c, null, null));
+        }
+    }
+
+    /**
+     * adds a variable, the name is the single String kept
+     * for it in the symbol table so uses share it
+     */
+    private void variable(String name, int position) {
+        if (builder != null) {
+            builder.addVariable(name, position);
+        }
+        else if (interner != null) {
+            pushNode(interner.variable(name));
+        }
+        else {
+            pushNode(new TreeNode(name));
+        }
+    }
+
+    private TreeNode node(char data, TreeNode left, TreeNode right) {
+        if (interner != null) {
+            return interner.node(data, left, right);
+        }
+
+        return new TreeNode(data, left, right);
+    }
+
+    private void pushNode(TreeNode node) {
+        if (nodeCount == nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodeCount * 2);
+        }
+        nodes[nodeCount++] = node;
+    }
+
+    private void pushOp(char op, int position) {
+        if (opCount == ops.length) {
+            ops = Arrays.copyOf(ops, opCount * 2);
+            opPositions = Arrays.copyOf(opPositions, opCount * 2);
+        }
+        ops[opCount] = op;
+        opPositions[opCount] = position;
+        opCount++;
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.*;
+
+/**
+ * Hash-consing factory for tree nodes. Structurally identical nodes
+ * are created only once and shared, which turns an expression tree
+ * into a DAG where every distinct subexpression exists a single time.
+ *
+ * Children must themselves come from the same interner, so two nodes
+ * are identical exactly when they have the same data and the very
+ * same child objects. Shared nodes must not be changed through the
+ * TreeNode setters afterwards.
+ *
+ */
+public final class NodeInterner {
+    private final HashMap<Key, TreeNode> nodes = new HashMap<>();
+
+    /**
+     * returns the node with the given data and children,
+     * creating it the first time it is asked for
+     *
+     * @param data node value
+     * @param left left child, from this interner
+     * @param right right child, from this interner
+     * @return the shared node
+     */
+    public TreeNode node(char data, TreeNode left, TreeNode right) {
+        if (Character.isLetter(data)) {
+            return variable(String.valueOf(data));
+        }
+
+        Key key = new Key(data, null, left, right);
+        TreeNode node = nodes.get(key);
+
+        if (node == null) {
+            node = new TreeNode(data, left, right);
+            nodes.put(key, node);
+        }
+
+        return node;
+    }
+
+    /**
+     * returns the variable node with the given name,
+     * creating it the first time it is asked for
+     *
+     * @param name variable name
+     * @return the shared node
+     */
+    public TreeNode variable(String name) {
+        Key key = new Key(name.charAt(0), name, null, null);
+        TreeNode node = nodes.get(key);
+
+        if (node == null) {
+            node = new TreeNode(name);
+            nodes.put(key, node);
+        }
+
+        return node;
+    }
+
+    /**
+     * rebuilds an existing tree out of shared nodes. The tree is
+     * walked with an explicit stack so deep trees do not overflow
+     *
+     * @param root root of the tree
+     * @return root of the shared DAG
+     */
+    public TreeNode share(TreeNode root) {
+        if (root == null) {
+            return null;
+        }
+
+        IdentityHashMap<TreeNode, TreeNode> shared = new IdentityHashMap<>();
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            TreeNode n = pending.peek();
+            if (shared.containsKey(n)) {
+                pending.pop();
+                continue;
+            }
+
+            TreeNode left = n.getLeftNode();
+            TreeNode right = n.getRightNode();
+            boolean ready = true;
+
+            if (right != null && !shared.containsKey(right)) {
+                pending.push(right);
+                ready = false;
+            }
+            if (left != null && !shared.containsKey(left)) {
+                pending.push(left);
+                ready = false;
+            }
+
+            if (ready) {
+                pending.pop();
+                shared.put(n, Character.isLetter(n.getData()) ? variable(n.getName())
+                        : node(n.getData(), shared.get(left), shared.get(right)));
+            }
+        }
+
+        return shared.get(root);
+    }
+
+    /**
+     * getter for the number of distinct nodes created so far
+     *
+     * @return node count
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * lookup key comparing the children by identity,
+     * and variables by name
+     */
+    private static final class Key {
+        private final char data;
+        private final String name;
+        private final TreeNode left;
+        private final TreeNode right;
+
+        Key(char data, String name, TreeNode left, TreeNode right) {
+            this.data = data;
+            this.name = name;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key k = (Key) o;
+            return data == k.data && Objects.equals(name, k.name) && left == k.left && right == k.right;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((data * 31 + Objects.hashCode(name)) * 31 + System.identityHashCode(left)) * 31
+                    + System.identityHashCode(right);
+        }
+    }
+}
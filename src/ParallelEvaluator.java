@@ -0,0 +1,316 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fork/join evaluator for formulas with millions of nodes, working on
+ * the post-order arrays of a CompactTree. The subtree of node i is the
+ * contiguous range of code ending at i, so every subtree at or below
+ * the threshold size is evaluated sequentially by one loop over its
+ * range, without recursion.
+ *
+ * A larger subtree is split along its spine: starting at its root the
+ * evaluator keeps stepping into the bigger child while it is above the
+ * threshold, and collects the other child of each step. Siblings above
+ * the threshold become tasks of their own and are split the same way,
+ * smaller ones are batched into tasks of about threshold nodes, and
+ * tiny ones are left alone. The range of the subtree is then run in the
+ * current thread, jumping over every handed off sibling and pushing its
+ * joined result instead. Every forked subtree is at most half the size
+ * of its parent, so tasks nest at most log2(n / threshold) deep however
+ * skewed the tree is, and a chain whose siblings are all tiny costs no
+ * more than sequential evaluation.
+ *
+ * Subtree sizes are computed once when the evaluator is created. The
+ * evaluator holds no per evaluation state and can be used by several
+ * threads at once.
+ *
+ */
+public final class ParallelEvaluator {
+    /** subtrees with at most this many nodes are evaluated sequentially */
+    public static final int DEFAULT_THRESHOLD = 1 << 14;
+
+    /** siblings smaller than threshold / GRAIN_DIVISOR stay in the thread that owns their parent */
+    private static final int GRAIN_DIVISOR = 64;
+
+    private final CompactTree tree;
+    private final byte[] ops;
+    private final int[] child;
+    private final int[] size;
+    private final boolean[] offload;
+    private final int maxDepth;
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private final int grain;
+
+    /**
+     * constructor to use the common pool and the default threshold
+     *
+     * @param tree tree to evaluate
+     */
+    public ParallelEvaluator(CompactTree tree) {
+        this(tree, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * constructor to set the pool and the threshold
+     *
+     * @param tree tree to evaluate
+     * @param pool pool running the tasks
+     * @param threshold largest subtree evaluated without splitting
+     */
+    public ParallelEvaluator(CompactTree tree, ForkJoinPool pool, int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        }
+
+        this.tree = tree;
+        this.ops = tree.compile().code();
+        this.child = tree.compile().operands();
+        this.maxDepth = tree.compile().maxDepth();
+        this.pool = pool;
+        this.threshold = threshold;
+
+        // children come first, so everything is known when the parent is reached.
+        // offload marks subtrees whose spine has a sibling worth handing to the pool
+        grain = Math.max(1, threshold / GRAIN_DIVISOR);
+        size = new int[ops.length];
+        offload = new boolean[ops.length];
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == CompiledExpression.NOT) {
+                size[i] = 1 + size[i - 1];
+                offload[i] = size[i] > threshold && offload[i - 1];
+            }
+            else if (ops[i] >= CompiledExpression.AND) {
+                size[i] = 1 + size[child[i]] + size[i - 1];
+                int big = bigChild(i);
+                int small = big == i - 1 ? child[i] : i - 1;
+                offload[i] = size[i] > threshold && (size[small] >= grain || offload[big]);
+            }
+            else {
+                size[i] = 1;
+            }
+        }
+    }
+
+    /**
+     * evaluates the tree with the given variable values
+     *
+     * @param values variable values indexed by slot
+     * @return result of the expression
+     */
+    public boolean evaluate(boolean[] values) {
+        if (values.length != tree.getVariableCount()) {
+            throw new IllegalArgumentException("Expected " + tree.getVariableCount() + " values but got "
+                    + values.length);
+        }
+
+        int root = ops.length - 1;
+        if (!offload[root]) {
+            return sequential(root, values, newStack(size[root]));
+        }
+
+        return pool.invoke(new SubtreeTask(root, values));
+    }
+
+    /**
+     * evaluates the tree with the values bound in an assignment
+     *
+     * @param assignment values created by the tree's newAssignment
+     * @return result of the expression
+     */
+    public boolean evaluate(Assignment assignment) {
+        return evaluate(assignment.values);
+    }
+
+    /**
+     * evaluates a subtree by running its range of the code
+     * on a stack of booleans
+     *
+     * @param node root of the subtree
+     * @param values variable values indexed by slot
+     * @param stack scratch stack, at least as deep as the subtree needs
+     * @return value of the subtree
+     */
+    private boolean sequential(int node, boolean[] values, boolean[] stack) {
+        run(node - size[node] + 1, node + 1, values, stack, -1);
+        return stack[0];
+    }
+
+    /**
+     * runs a stretch of the code on a stack which may already hold values
+     *
+     * @param from first instruction
+     * @param to instruction after the last one
+     * @param values variable values indexed by slot
+     * @param stack evaluation stack
+     * @param top index of the top of the stack
+     * @return new index of the top of the stack
+     */
+    private int run(int from, int to, boolean[] values, boolean[] stack, int top) {
+        for (int pc = from; pc < to; pc++) {
+            switch (ops[pc]) {
+                case CompiledExpression.FALSE:
+                    stack[++top] = false;
+                    break;
+                case CompiledExpression.TRUE:
+                    stack[++top] = true;
+                    break;
+                case CompiledExpression.LOAD:
+                    stack[++top] = values[child[pc]];
+                    break;
+                case CompiledExpression.NOT:
+                    stack[top] = !stack[top];
+                    break;
+                case CompiledExpression.AND:
+                    top--;
+                    stack[top] &= stack[top + 1];
+                    break;
+                case CompiledExpression.OR:
+                    top--;
+                    stack[top] |= stack[top + 1];
+                    break;
+                case CompiledExpression.XOR:
+                    top--;
+                    stack[top] ^= stack[top + 1];
+                    break;
+            }
+        }
+
+        return top;
+    }
+
+    private int bigChild(int node) {
+        return size[child[node]] >= size[node - 1] ? child[node] : node - 1;
+    }
+
+    private boolean[] newStack(int nodes) {
+        return new boolean[Math.min(maxDepth, nodes)];
+    }
+
+    /**
+     * evaluates a subtree above the threshold. The siblings along its
+     * spine that are big enough are handed to the pool, then the range
+     * of the subtree is run in this thread, skipping every handed off
+     * sibling and pushing its result instead
+     *
+     * @param node root of the subtree
+     * @param values variable values indexed by slot
+     * @return value of the subtree
+     */
+    private boolean split(int node, boolean[] values) {
+        int[] siblings = new int[16];
+        int count = 0;
+        int n = node;
+
+        while (offload[n]) {
+            if (ops[n] == CompiledExpression.NOT) {
+                n = n - 1;
+                continue;
+            }
+
+            int big = bigChild(n);
+            int small = big == n - 1 ? child[n] : n - 1;
+            if (size[small] >= grain) {
+                if (count == siblings.length) {
+                    siblings = Arrays.copyOf(siblings, count * 2);
+                }
+                siblings[count++] = small;
+            }
+            n = big;
+        }
+
+        // the subtrees are disjoint, so sorting the roots sorts the ranges
+        Arrays.sort(siblings, 0, count);
+        boolean[] siblingValue = new boolean[count];
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[count];
+
+        // forked from the back, so the first sibling reached is on top of this deque
+        // and thieves take the later ones from the bottom
+        int batchEnd = count;
+        int batchSize = 0;
+        for (int k = count - 1; k >= -1; k--) {
+            boolean big = k >= 0 && size[siblings[k]] > threshold;
+            if (batchEnd > k + 1 && (k < 0 || big || batchSize >= threshold)) {
+                BatchTask batch = new BatchTask(siblings, siblingValue, k + 1, batchEnd, values);
+                Arrays.fill(tasks, k + 1, batchEnd, batch);
+                batch.fork();
+                batchEnd = k + 1;
+                batchSize = 0;
+            }
+            if (big) {
+                tasks[k] = new SubtreeTask(siblings[k], values).fork();
+                batchEnd = k;
+            }
+            else if (k >= 0) {
+                batchSize += size[siblings[k]];
+            }
+        }
+
+        boolean[] stack = newStack(size[node]);
+        int top = -1;
+        int pc = node - size[node] + 1;
+
+        for (int k = 0; k < count; k++) {
+            int s = siblings[k];
+            top = run(pc, s - size[s] + 1, values, stack, top);
+
+            if (tasks[k] instanceof SubtreeTask) {
+                siblingValue[k] = ((SubtreeTask) tasks[k]).join();
+            }
+            else {
+                tasks[k].join();
+            }
+            stack[++top] = siblingValue[k];
+            pc = s + 1;
+        }
+
+        run(pc, node + 1, values, stack, top);
+        return stack[0];
+    }
+
+    /**
+     * Task evaluating one subtree above the threshold
+     */
+    private final class SubtreeTask extends RecursiveTask<Boolean> {
+        private final int node;
+        private final boolean[] values;
+
+        SubtreeTask(int node, boolean[] values) {
+            this.node = node;
+            this.values = values;
+        }
+
+        @Override
+        protected Boolean compute() {
+            return split(node, values);
+        }
+    }
+
+    /**
+     * Task evaluating a run of small siblings one after another
+     */
+    private final class BatchTask extends RecursiveAction {
+        private final int[] siblings;
+        private final boolean[] siblingValue;
+        private final int from;
+        private final int to;
+        private final boolean[] values;
+
+        BatchTask(int[] siblings, boolean[] siblingValue, int from, int to, boolean[] values) {
+            this.siblings = siblings;
+            this.siblingValue = siblingValue;
+            this.from = from;
+            this.to = to;
+            this.values = values;
+        }
+
+        @Override
+        protected void compute() {
+            boolean[] stack = newStack(threshold);
+
+            for (int k = from; k < to; k++) {
+                siblingValue[k] = sequential(siblings[k], values, stack);
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import java.util.*;
+
+/**
+ * Single pass parser which checks the arity of every operator while it
+ * builds the tree from a postfix expression, so the input is read once
+ * instead of being validated and then populated.
+ *
+ * Problems are returned in a Result instead of being thrown, giving the
+ * kind of error, its position, the character at fault and how many
+ * operands were expected and available, so callers fed large amounts of
+ * malformed input pay for no exception at all. Result.orElseThrow and
+ * parseOrThrow are there for callers which want an exception, it is an
+ * ExpressionParseException which skips capturing the stack trace.
+ *
+ * Variable names longer than one letter are written as [name] and
+ * whitespace is skipped.
+ *
+ */
+public final class PostfixParser {
+    /**
+     * Kinds of problems found in a postfix expression
+     */
+    public enum ErrorKind {
+        /** no operand at all */
+        EMPTY_EXPRESSION,
+        /** a character which is not an operand, an operator or whitespace */
+        UNEXPECTED_CHARACTER,
+        /** a [ which is not followed by an identifier and ] */
+        INVALID_NAME,
+        /** an operator with fewer operands before it than it takes */
+        MISSING_OPERAND,
+        /** more than one operand left at the end */
+        MISSING_OPERATOR
+    }
+
+    private PostfixParser() {
+    }
+
+    /**
+     * parses a postfix expression into a tree
+     *
+     * @param postfix postfix expression
+     * @return result holding the root node or the error
+     */
+    public static Result parse(CharSequence postfix) {
+        return parse(postfix, null);
+    }
+
+    /**
+     * parses a postfix expression, creating the nodes through an
+     * interner so identical subexpressions are shared
+     *
+     * @param postfix postfix expression
+     * @param interner shares identical nodes, or null for a plain tree
+     * @return result holding the root node or the error
+     */
+    public static Result parse(CharSequence postfix, NodeInterner interner) {
+        long start = ExpressionMetrics.start();
+        Result result = run(postfix, interner);
+        ExpressionMetrics.recordParse(ExpressionMetrics.Phase.POPULATE, start, postfix.length());
+        return result;
+    }
+
+    /**
+     * parses a postfix expression into a tree
+     *
+     * @param postfix postfix expression
+     * @return root node of the tree
+     * @throws ExpressionParseException if the expression is invalid
+     */
+    public static TreeNode parseOrThrow(CharSequence postfix) {
+        return parse(postfix, null).orElseThrow();
+    }
+
+    /**
+     * builds the tree, popping the operands of each operator off
+     * a stack of nodes once their number has been checked
+     *
+     * @param postfix postfix expression
+     * @param interner shares identical nodes, or null for a plain tree
+     * @return result holding the root node or the error
+     */
+    private static Result run(CharSequence postfix, NodeInterner interner) {
+        SymbolTable symbols = null;
+        TreeNode[] nodes = new TreeNode[16];
+        int top = -1;
+
+        for (int i = 0; i < postfix.length(); i++) {
+            char c = postfix.charAt(i);
+            TreeNode node;
+
+            switch (c) {
+                case '&':
+                case '|':
+                case '^':
+                    if (top < 1) {
+                        return Result.error(ErrorKind.MISSING_OPERAND, i, c, 2, top + 1);
+                    }
+                    node = newNode(c, nodes[top - 1], nodes[top], interner);
+                    top -= 2;
+                    break;
+
+                case '!':
+                    if (top < 0) {
+                        return Result.error(ErrorKind.MISSING_OPERAND, i, c, 1, 0);
+                    }
+                    node = newNode(c, null, nodes[top--], interner);
+                    break;
+
+                case '0':
+                case '1':
+                    node = newNode(c, null, null, interner);
+                    break;
+
+                case '[':
+                    // bracketed variable name, every use shares one String
+                    int end = SymbolTable.bracketEnd(postfix, i);
+                    if (end < 0) {
+                        return Result.error(ErrorKind.INVALID_NAME, i, c, 0, top + 1);
+                    }
+                    if (symbols == null) {
+                        symbols = new SymbolTable();
+                    }
+                    String name = symbols.nameOf(symbols.intern(postfix.subSequence(i + 1, end).toString()));
+                    node = interner != null ? interner.variable(name) : new TreeNode(name);
+                    i = end;
+                    break;
+
+                default:
+                    if (Character.isWhitespace(c)) {
+                        continue;
+                    }
+                    if (!Character.isLetter(c)) {
+                        return Result.error(ErrorKind.UNEXPECTED_CHARACTER, i, c, 0, top + 1);
+                    }
+                    node = newNode(c, null, null, interner);
+                    break;
+            }
+
+            if (++top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            nodes[top] = node;
+        }
+
+        if (top != 0) {
+            return Result.error(top < 0 ? ErrorKind.EMPTY_EXPRESSION : ErrorKind.MISSING_OPERATOR,
+                    postfix.length(), '\0', 1, top + 1);
+        }
+
+        return new Result(nodes[0], null, -1, '\0', 0, 0);
+    }
+
+    /**
+     * creates a node, or reuses an identical one if an interner is given
+     */
+    private static TreeNode newNode(char data, TreeNode left, TreeNode right, NodeInterner interner) {
+        if (interner != null) {
+            return interner.node(data, left, right);
+        }
+
+        return new TreeNode(data, left, right);
+    }
+
+    /**
+     * Outcome of parsing a postfix expression, either the root
+     * node of the tree or a description of the first problem.
+     * The message is only built when it is asked for
+     *
+     */
+    public static final class Result {
+        private final TreeNode root;
+        private final ErrorKind error;
+        private final int position;
+        private final char character;
+        private final int expectedOperands;
+        private final int availableOperands;
+
+        private Result(TreeNode root, ErrorKind error, int position, char character,
+                       int expectedOperands, int availableOperands) {
+            this.root = root;
+            this.error = error;
+            this.position = position;
+            this.character = character;
+            this.expectedOperands = expectedOperands;
+            this.availableOperands = availableOperands;
+        }
+
+        private static Result error(ErrorKind error, int position, char character,
+                                    int expectedOperands, int availableOperands) {
+            return new Result(null, error, position, character, expectedOperands, availableOperands);
+        }
+
+        /**
+         * checks whether the expression was parsed
+         *
+         * @return true if there is a tree, false if there is an error
+         */
+        public boolean isValid() {
+            return error == null;
+        }
+
+        /**
+         * getter for the root node of the tree
+         *
+         * @return root node, or null if the expression is invalid
+         */
+        public TreeNode getRoot() {
+            return root;
+        }
+
+        /**
+         * getter for the kind of error
+         *
+         * @return kind of error, or null if the expression is valid
+         */
+        public ErrorKind getError() {
+            return error;
+        }
+
+        /**
+         * getter for the position of the error, the length of the
+         * input when the problem is only found at its end
+         *
+         * @return index in the input counting from 0, or -1 if the expression is valid
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * getter for the character at fault, the operator missing an
+         * operand, the unexpected character or the [ of an invalid name
+         *
+         * @return character, or '\0' if the error is at the end of the input
+         */
+        public char getCharacter() {
+            return character;
+        }
+
+        /**
+         * getter for the number of operands the operator at fault takes,
+         * or 1 for the whole expression when the error is at the end
+         *
+         * @return operands expected, 0 for errors which are not about arity
+         */
+        public int getExpectedOperands() {
+            return expectedOperands;
+        }
+
+        /**
+         * getter for the number of operands on the stack
+         * when the error was found
+         *
+         * @return operands available
+         */
+        public int getAvailableOperands() {
+            return availableOperands;
+        }
+
+        /**
+         * getter for the description of the error, without the position
+         *
+         * @return description, or null if the expression is valid
+         */
+        public String getMessage() {
+            if (error == null) {
+                return null;
+            }
+
+            switch (error) {
+                case EMPTY_EXPRESSION:
+                    return "Empty expression";
+                case UNEXPECTED_CHARACTER:
+                    return "Unexpected character '" + character + "'";
+                case INVALID_NAME:
+                    return "Invalid variable name";
+                case MISSING_OPERAND:
+                    return "Missing operand for '" + character + "', expected " + expectedOperands
+                            + " but found " + availableOperands;
+                default:
+                    return availableOperands + " operands are left without an operator";
+            }
+        }
+
+        /**
+         * getter for the root node, throwing if there is none
+         *
+         * @return root node of the tree
+         * @throws ExpressionParseException if the expression is invalid
+         */
+        public TreeNode orElseThrow() {
+            if (error != null) {
+                throw new StacklessParseException(getMessage(), position);
+            }
+
+            return root;
+        }
+
+        /**
+         * writes the outcome for messages
+         *
+         * @return "valid" or the error with its position
+         */
+        @Override
+        public String toString() {
+            return error == null ? "valid" : getMessage() + " at position " + position;
+        }
+    }
+
+    /**
+     * ExpressionParseException which does not fill in its stack trace,
+     * the position already tells where the problem is and capturing
+     * the frames costs more than the rest of the parse
+     */
+    private static final class StacklessParseException extends ExpressionParseException {
+        StacklessParseException(String message, int position) {
+            super(message, position);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
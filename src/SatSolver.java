@@ -0,0 +1,760 @@
+import java.util.*;
+
+/**
+ * Conflict driven clause learning satisfiability solver for formulas in
+ * conjunctive normal form, usually filled by CnfEncoder.
+ *
+ * Variables are numbered from 1 and literals are written as in DIMACS:
+ * v for the variable being true and -v for it being false. The solver
+ * keeps two watched literals per clause, learns a first UIP clause from
+ * every conflict, branches on the variable with the highest decayed
+ * conflict activity using the polarity it last had, restarts on the Luby
+ * sequence and throws away the less active half of the learnt clauses
+ * when there are too many of them.
+ *
+ * Clauses can be added between calls to solve, and every call can take
+ * assumptions, literals which only hold for that call. Learnt clauses
+ * follow from the original ones, so they are kept across calls. A call
+ * can be bounded by a number of conflicts and a time limit, and then
+ * answers UNKNOWN when it runs out.
+ *
+ * The solver keeps state between calls, so an instance must not be
+ * shared between threads.
+ *
+ */
+public final class SatSolver {
+    /**
+     * Outcome of a call to solve
+     */
+    public enum Result {
+        /** a model was found, see modelValue */
+        SATISFIABLE,
+        /** no model exists, under the assumptions if there were any */
+        UNSATISFIABLE,
+        /** the conflict or time limit ran out first */
+        UNKNOWN
+    }
+
+    private static final byte UNDEF = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+
+    private static final double VAR_DECAY = 0.95;
+    private static final double CLAUSE_DECAY = 0.999;
+    private static final int RESTART_BASE = 100;
+    private static final int ADJUST_BASE = 100;
+
+    /**
+     * Original or learnt clause, the watched literals are lits[0] and lits[1]
+     * and a clause which is the reason of an assignment has the implied
+     * literal in lits[0]
+     */
+    private static final class Clause {
+        final int[] lits;
+        final boolean learnt;
+        double activity;
+        boolean deleted;
+
+        Clause(int[] lits, boolean learnt) {
+            this.lits = lits;
+            this.learnt = learnt;
+        }
+    }
+
+    // internal literals are 2 * var + 1 for the negation, variables count from 0
+    private int variableCount;
+    private byte[] assigns = new byte[16];
+    private int[] level = new int[16];
+    private Clause[] reason = new Clause[16];
+    private boolean[] phase = new boolean[16];
+    private boolean[] seen = new boolean[16];
+    private double[] activity = new double[16];
+    private double varInc = 1;
+    private double clauseInc = 1;
+
+    // watches[l] holds the clauses watching the negation of l, they are visited when l becomes true
+    private Clause[][] watches = new Clause[32][];
+    private int[] watchCount = new int[32];
+
+    private int[] trail = new int[16];
+    private int trailSize;
+    private int qhead;
+    private int[] trailLim = new int[16];
+    private int decisionLevel;
+
+    // binary max-heap of unassigned variables ordered by activity
+    private int[] heap = new int[16];
+    private int[] heapIndex = new int[16];
+    private int heapSize;
+
+    private final ArrayList<Clause> clauses = new ArrayList<>();
+    private final ArrayList<Clause> learnts = new ArrayList<>();
+    private double maxLearnts;
+    private double adjustInterval;
+    private long adjustAt;
+
+    // outputs of analyze besides the clause itself
+    private int learntSize;
+    private int backtrackLevel;
+
+    private boolean ok = true;
+    private boolean[] model;
+
+    private long conflictLimit = -1;
+    private long timeLimitNanos = -1;
+    private long conflicts;
+    private long decisions;
+    private long propagations;
+
+    /**
+     * creates a solver without variables or clauses
+     */
+    public SatSolver() {
+    }
+
+    /**
+     * adds a fresh variable
+     *
+     * @return number of the variable, counting from 1
+     */
+    public int newVariable() {
+        int v = variableCount++;
+        if (v == assigns.length) {
+            int n = v * 2;
+            assigns = Arrays.copyOf(assigns, n);
+            level = Arrays.copyOf(level, n);
+            reason = Arrays.copyOf(reason, n);
+            phase = Arrays.copyOf(phase, n);
+            seen = Arrays.copyOf(seen, n);
+            activity = Arrays.copyOf(activity, n);
+            trail = Arrays.copyOf(trail, n);
+            heap = Arrays.copyOf(heap, n);
+            heapIndex = Arrays.copyOf(heapIndex, n);
+            watches = Arrays.copyOf(watches, 2 * n);
+            watchCount = Arrays.copyOf(watchCount, 2 * n);
+        }
+
+        heapIndex[v] = -1;
+        heapInsert(v);
+        return v + 1;
+    }
+
+    /**
+     * getter for the number of variables
+     *
+     * @return variable count
+     */
+    public int getVariableCount() {
+        return variableCount;
+    }
+
+    /**
+     * adds a clause, the disjunction of its literals
+     *
+     * @param literals DIMACS literals over existing variables
+     * @return false if the clauses are now known to be unsatisfiable
+     */
+    public boolean addClause(int... literals) {
+        cancelUntil(0);
+        if (!ok) {
+            return false;
+        }
+
+        int[] lits = new int[literals.length];
+        for (int i = 0; i < literals.length; i++) {
+            lits[i] = internal(literals[i]);
+        }
+        Arrays.sort(lits);
+
+        // drop false and repeated literals, and the whole clause if it is already true
+        int n = 0;
+        for (int i = 0; i < lits.length; i++) {
+            int lit = lits[i];
+            if (value(lit) == TRUE || (n > 0 && lits[n - 1] == (lit ^ 1))) {
+                return true;
+            }
+            if (value(lit) != FALSE && (n == 0 || lits[n - 1] != lit)) {
+                lits[n++] = lit;
+            }
+        }
+
+        if (n == 0) {
+            ok = false;
+        }
+        else if (n == 1) {
+            enqueue(lits[0], null);
+            ok = propagate() == null;
+        }
+        else {
+            Clause c = new Clause(Arrays.copyOf(lits, n), false);
+            clauses.add(c);
+            attach(c);
+        }
+
+        return ok;
+    }
+
+    /**
+     * limits the conflicts of each later call to solve
+     *
+     * @param limit conflicts allowed per call, or a negative number for no limit
+     */
+    public void setConflictLimit(long limit) {
+        conflictLimit = limit;
+    }
+
+    /**
+     * limits the running time of each later call to solve
+     *
+     * @param millis milliseconds allowed per call, or a negative number for no limit
+     */
+    public void setTimeLimit(long millis) {
+        timeLimitNanos = millis < 0 ? -1 : millis * 1_000_000L;
+    }
+
+    /**
+     * searches for a model of the clauses in which every assumption holds
+     *
+     * @param assumptions DIMACS literals that must be true for this call only
+     * @return outcome of the search
+     */
+    public Result solve(int... assumptions) {
+        model = null;
+        cancelUntil(0);
+        if (!ok) {
+            return Result.UNSATISFIABLE;
+        }
+
+        int[] assumed = new int[assumptions.length];
+        for (int i = 0; i < assumptions.length; i++) {
+            assumed[i] = internal(assumptions[i]);
+        }
+
+        long start = System.nanoTime();
+        long stopAt = conflictLimit < 0 ? Long.MAX_VALUE : conflicts + conflictLimit;
+        maxLearnts = Math.max(clauses.size() / 3.0, 1000);
+        adjustInterval = ADJUST_BASE;
+        adjustAt = conflicts + ADJUST_BASE;
+        Result result = null;
+
+        for (int restart = 0; result == null; restart++) {
+            result = search(RESTART_BASE * luby(restart), assumed, stopAt, start);
+        }
+
+        cancelUntil(0);
+        return result;
+    }
+
+    /**
+     * getter for the value of a variable in the model found by the last solve
+     *
+     * @param variable variable number
+     * @return value of the variable
+     */
+    public boolean modelValue(int variable) {
+        if (model == null) {
+            throw new IllegalStateException("The last solve did not find a model");
+        }
+
+        return model[variable - 1];
+    }
+
+    /**
+     * getter for the number of conflicts in every solve so far
+     *
+     * @return conflict count
+     */
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * getter for the number of branching decisions in every solve so far
+     *
+     * @return decision count
+     */
+    public long getDecisions() {
+        return decisions;
+    }
+
+    /**
+     * getter for the number of literals propagated in every solve so far
+     *
+     * @return propagation count
+     */
+    public long getPropagations() {
+        return propagations;
+    }
+
+    /**
+     * getter for the number of learnt clauses currently kept
+     *
+     * @return learnt clause count
+     */
+    public int getLearntCount() {
+        return learnts.size();
+    }
+
+    /**
+     * runs until a model, a proof, a limit or the end of the restart budget
+     *
+     * @return outcome, or null to restart
+     */
+    private Result search(long budget, int[] assumed, long stopAt, long start) {
+        long conflictsHere = 0;
+        int[] learnt = new int[16];
+
+        while (true) {
+            Clause conflict = propagate();
+
+            if (conflict != null) {
+                conflicts++;
+                conflictsHere++;
+                if (decisionLevel == 0) {
+                    ok = false;
+                    return Result.UNSATISFIABLE;
+                }
+
+                int[] out = analyze(conflict, learnt);
+                learnt = out;
+                int size = learntSize;
+                cancelUntil(backtrackLevel);
+
+                if (size == 1) {
+                    enqueue(out[0], null);
+                }
+                else {
+                    Clause c = new Clause(Arrays.copyOf(out, size), true);
+                    learnts.add(c);
+                    attach(c);
+                    bumpClause(c);
+                    enqueue(out[0], c);
+                }
+
+                varInc /= VAR_DECAY;
+                clauseInc /= CLAUSE_DECAY;
+
+                // let the learnt clause database grow by a tenth over ever longer stretches
+                if (conflicts >= adjustAt) {
+                    adjustInterval *= 1.5;
+                    adjustAt = conflicts + (long) adjustInterval;
+                    maxLearnts *= 1.1;
+                }
+                continue;
+            }
+
+            if (conflicts >= stopAt
+                    || (timeLimitNanos >= 0 && System.nanoTime() - start >= timeLimitNanos)) {
+                return Result.UNKNOWN;
+            }
+            if (conflictsHere >= budget) {
+                cancelUntil(0);
+                return null;
+            }
+            if (learnts.size() - trailSize >= maxLearnts) {
+                reduceLearnts();
+            }
+
+            int next = -1;
+            while (decisionLevel < assumed.length) {
+                int p = assumed[decisionLevel];
+                if (value(p) == TRUE) {
+                    // already implied, open an empty level to keep levels and assumptions aligned
+                    newDecisionLevel();
+                }
+                else if (value(p) == FALSE) {
+                    return Result.UNSATISFIABLE;
+                }
+                else {
+                    next = p;
+                    break;
+                }
+            }
+
+            if (next < 0) {
+                next = pickBranch();
+                if (next < 0) {
+                    model = new boolean[variableCount];
+                    for (int v = 0; v < variableCount; v++) {
+                        model[v] = assigns[v] == TRUE;
+                    }
+                    return Result.SATISFIABLE;
+                }
+                decisions++;
+            }
+
+            newDecisionLevel();
+            enqueue(next, null);
+        }
+    }
+
+    /**
+     * derives the first UIP clause of a conflict, with the asserting
+     * literal first and a literal of the backtrack level second
+     *
+     * @param conflict clause made false by the current assignment
+     * @param out buffer for the clause, replaced if too small
+     * @return buffer holding the clause
+     */
+    private int[] analyze(Clause conflict, int[] out) {
+        int size = 1;
+        int pathCount = 0;
+        int p = -1;
+        int index = trailSize - 1;
+        Clause c = conflict;
+
+        do {
+            if (c.learnt) {
+                bumpClause(c);
+            }
+
+            for (int j = p < 0 ? 0 : 1; j < c.lits.length; j++) {
+                int q = c.lits[j];
+                int v = q >> 1;
+                if (!seen[v] && level[v] > 0) {
+                    bumpVariable(v);
+                    seen[v] = true;
+                    if (level[v] >= decisionLevel) {
+                        pathCount++;
+                    }
+                    else {
+                        if (size == out.length) {
+                            out = Arrays.copyOf(out, size * 2);
+                        }
+                        out[size++] = q;
+                    }
+                }
+            }
+
+            // next literal of the current level on the trail
+            while (!seen[trail[index] >> 1]) {
+                index--;
+            }
+            p = trail[index--];
+            c = reason[p >> 1];
+            seen[p >> 1] = false;
+            pathCount--;
+        } while (pathCount > 0);
+        out[0] = p ^ 1;
+
+        // drop literals implied by the others through their reason clause,
+        // they stay marked until the end since they still hold
+        int[] marked = Arrays.copyOf(out, size);
+        int kept = 1;
+        for (int i = 1; i < size; i++) {
+            Clause r = reason[out[i] >> 1];
+            boolean redundant = r != null;
+            if (r != null) {
+                for (int j = 1; j < r.lits.length; j++) {
+                    int v = r.lits[j] >> 1;
+                    if (!seen[v] && level[v] > 0) {
+                        redundant = false;
+                        break;
+                    }
+                }
+            }
+            if (!redundant) {
+                out[kept++] = out[i];
+            }
+        }
+        for (int i = 1; i < size; i++) {
+            seen[marked[i] >> 1] = false;
+        }
+        size = kept;
+
+        backtrackLevel = 0;
+        if (size > 1) {
+            int max = 1;
+            for (int i = 2; i < size; i++) {
+                if (level[out[i] >> 1] > level[out[max] >> 1]) {
+                    max = i;
+                }
+            }
+            int t = out[1];
+            out[1] = out[max];
+            out[max] = t;
+            backtrackLevel = level[out[1] >> 1];
+        }
+
+        learntSize = size;
+        return out;
+    }
+
+    /**
+     * propagates every literal on the trail that has not been propagated yet
+     *
+     * @return a clause made false, or null if there is no conflict
+     */
+    private Clause propagate() {
+        Clause conflict = null;
+
+        while (qhead < trailSize) {
+            int p = trail[qhead++];
+            int falseLit = p ^ 1;
+            Clause[] list = watches[p];
+            int count = watchCount[p];
+            int i = 0;
+            int j = 0;
+            propagations++;
+
+            while (i < count) {
+                Clause c = list[i++];
+                if (c.deleted) {
+                    continue;
+                }
+
+                int[] lits = c.lits;
+                if (lits[0] == falseLit) {
+                    lits[0] = lits[1];
+                    lits[1] = falseLit;
+                }
+
+                if (value(lits[0]) == TRUE) {
+                    list[j++] = c;
+                    continue;
+                }
+
+                // look for a new literal to watch
+                boolean moved = false;
+                for (int k = 2; k < lits.length; k++) {
+                    if (value(lits[k]) != FALSE) {
+                        lits[1] = lits[k];
+                        lits[k] = falseLit;
+                        watch(lits[1] ^ 1, c);
+                        moved = true;
+                        break;
+                    }
+                }
+                if (moved) {
+                    continue;
+                }
+
+                list[j++] = c;
+                if (value(lits[0]) == FALSE) {
+                    conflict = c;
+                    qhead = trailSize;
+                    while (i < count) {
+                        list[j++] = list[i++];
+                    }
+                }
+                else {
+                    enqueue(lits[0], c);
+                }
+            }
+
+            watchCount[p] = j;
+            if (conflict != null) {
+                break;
+            }
+        }
+
+        return conflict;
+    }
+
+    /**
+     * removes the less active half of the learnt clauses, except binary
+     * clauses and clauses which are the reason of an assignment
+     */
+    private void reduceLearnts() {
+        learnts.sort(Comparator.comparingDouble((Clause c) -> c.activity));
+        double floor = clauseInc / learnts.size();
+        int kept = 0;
+
+        for (int i = 0; i < learnts.size(); i++) {
+            Clause c = learnts.get(i);
+            boolean locked = reason[c.lits[0] >> 1] == c && value(c.lits[0]) == TRUE;
+            if (c.lits.length > 2 && !locked && (i < learnts.size() / 2 || c.activity < floor)) {
+                // detached lazily the next time propagate visits it
+                c.deleted = true;
+            }
+            else {
+                learnts.set(kept++, c);
+            }
+        }
+
+        learnts.subList(kept, learnts.size()).clear();
+    }
+
+    private int pickBranch() {
+        while (heapSize > 0) {
+            int v = heapRemoveMax();
+            if (assigns[v] == UNDEF) {
+                return 2 * v + (phase[v] ? 0 : 1);
+            }
+        }
+
+        return -1;
+    }
+
+    private void newDecisionLevel() {
+        if (decisionLevel == trailLim.length) {
+            trailLim = Arrays.copyOf(trailLim, decisionLevel * 2);
+        }
+        trailLim[decisionLevel++] = trailSize;
+    }
+
+    private void enqueue(int lit, Clause from) {
+        int v = lit >> 1;
+        assigns[v] = (lit & 1) == 0 ? TRUE : FALSE;
+        level[v] = decisionLevel;
+        reason[v] = from;
+        trail[trailSize++] = lit;
+    }
+
+    /**
+     * undoes every assignment above a decision level, saving
+     * the polarities for the next decisions
+     */
+    private void cancelUntil(int target) {
+        if (decisionLevel <= target) {
+            return;
+        }
+
+        for (int i = trailSize - 1; i >= trailLim[target]; i--) {
+            int v = trail[i] >> 1;
+            phase[v] = assigns[v] == TRUE;
+            assigns[v] = UNDEF;
+            reason[v] = null;
+            if (heapIndex[v] < 0) {
+                heapInsert(v);
+            }
+        }
+
+        trailSize = trailLim[target];
+        qhead = trailSize;
+        decisionLevel = target;
+    }
+
+    private byte value(int lit) {
+        byte a = assigns[lit >> 1];
+        if (a == UNDEF || (lit & 1) == 0) {
+            return a;
+        }
+        return a == TRUE ? FALSE : TRUE;
+    }
+
+    private int internal(int literal) {
+        int v = Math.abs(literal) - 1;
+        if (literal == 0 || v >= variableCount) {
+            throw new IllegalArgumentException("Unknown variable in literal " + literal);
+        }
+
+        return 2 * v + (literal < 0 ? 1 : 0);
+    }
+
+    private void attach(Clause c) {
+        watch(c.lits[0] ^ 1, c);
+        watch(c.lits[1] ^ 1, c);
+    }
+
+    private void watch(int lit, Clause c) {
+        Clause[] list = watches[lit];
+        if (list == null) {
+            list = watches[lit] = new Clause[4];
+        }
+        else if (watchCount[lit] == list.length) {
+            list = watches[lit] = Arrays.copyOf(list, list.length * 2);
+        }
+        list[watchCount[lit]++] = c;
+    }
+
+    private void bumpVariable(int v) {
+        activity[v] += varInc;
+        if (activity[v] > 1e100) {
+            for (int i = 0; i < variableCount; i++) {
+                activity[i] *= 1e-100;
+            }
+            varInc *= 1e-100;
+        }
+        if (heapIndex[v] >= 0) {
+            siftUp(heapIndex[v]);
+        }
+    }
+
+    private void bumpClause(Clause c) {
+        c.activity += clauseInc;
+        if (c.activity > 1e20) {
+            for (Clause l : learnts) {
+                l.activity *= 1e-20;
+            }
+            clauseInc *= 1e-20;
+        }
+    }
+
+    /**
+     * i-th element of the Luby sequence 1 1 2 1 1 2 4 1 1 2 ...
+     */
+    private static long luby(int i) {
+        int size = 1;
+        int seq = 0;
+        while (size < i + 1) {
+            seq++;
+            size = 2 * size + 1;
+        }
+
+        while (size - 1 != i) {
+            size = (size - 1) >> 1;
+            seq--;
+            i = i % size;
+        }
+
+        return 1L << seq;
+    }
+
+    private void heapInsert(int v) {
+        heapIndex[v] = heapSize;
+        heap[heapSize++] = v;
+        siftUp(heapIndex[v]);
+    }
+
+    private int heapRemoveMax() {
+        int top = heap[0];
+        int last = heap[--heapSize];
+        heapIndex[top] = -1;
+
+        if (heapSize > 0) {
+            heap[0] = last;
+            heapIndex[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int k) {
+        int v = heap[k];
+
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (activity[heap[parent]] >= activity[v]) {
+                break;
+            }
+            heap[k] = heap[parent];
+            heapIndex[heap[k]] = k;
+            k = parent;
+        }
+        heap[k] = v;
+        heapIndex[v] = k;
+    }
+
+    private void siftDown(int k) {
+        int v = heap[k];
+
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && activity[heap[child + 1]] > activity[heap[child]]) {
+                child++;
+            }
+            if (activity[v] >= activity[heap[child]]) {
+                break;
+            }
+            heap[k] = heap[child];
+            heapIndex[heap[k]] = k;
+            k = child;
+        }
+        heap[k] = v;
+        heapIndex[v] = k;
+    }
+}
@@ -0,0 +1,300 @@
+import java.util.*;
+
+/**
+ * Lazy evaluator which asks for variable values only when they are
+ * needed. {@code &} and {@code |} stop as soon as their first operand decides the
+ * result, so the variables of the other operand are never resolved,
+ * and every variable is resolved at most once per evaluation.
+ *
+ * In adaptive mode the evaluator also keeps, for every node, how often
+ * it was true and how many variables it took to evaluate. Every few
+ * evaluations of an {@code &} or {@code |} node its operands are reordered so the one
+ * with the lowest expected cost per decisive result goes first.
+ *
+ * The evaluator keeps state between calls, so an instance
+ * must not be shared between threads.
+ *
+ */
+public final class ShortCircuitEvaluator {
+    /** evaluations of a node between two reorder decisions */
+    private static final int REORDER_INTERVAL = 64;
+
+    private final char[] data;
+    private final int[] left;
+    private final int[] right;
+    private final int[] slot;
+    private final String[] variables;
+    private final int root;
+    private final boolean adaptive;
+
+    // per evaluation state, reset by bumping the epoch
+    private int epoch;
+    private final int[] nodeEpoch;
+    private final boolean[] nodeValue;
+    private final int[] variableEpoch;
+    private final boolean[] variableValue;
+    private long resolutions;
+    private long lastResolutions;
+
+    // runtime statistics of every node for the adaptive mode
+    private final long[] evals;
+    private final long[] trues;
+    private final long[] cost;
+    private final double[] costPrior;
+    private final boolean[] swapped;
+
+    // explicit evaluation stack
+    private final int[] frameNode;
+    private final int[] frameState;
+    private final long[] frameStart;
+    private final boolean[] frameFirst;
+
+    /**
+     * constructor to prepare the evaluator for a tree
+     *
+     * @param tree root node of the tree
+     * @param adaptive true to reorder operands based on runtime statistics
+     */
+    public ShortCircuitEvaluator(TreeNode tree, boolean adaptive) {
+        this.adaptive = adaptive;
+
+        // number the distinct nodes in post-order, children before their parents
+        IdentityHashMap<TreeNode, Integer> index = new IdentityHashMap<>();
+        ArrayList<TreeNode> order = new ArrayList<>();
+        TreeSet<String> names = new TreeSet<>();
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(tree);
+
+        while (!pending.isEmpty()) {
+            TreeNode n = pending.peek();
+            if (index.containsKey(n)) {
+                pending.pop();
+                continue;
+            }
+
+            boolean ready = true;
+            if (n.getRightNode() != null && !index.containsKey(n.getRightNode())) {
+                pending.push(n.getRightNode());
+                ready = false;
+            }
+            if (n.getLeftNode() != null && !index.containsKey(n.getLeftNode())) {
+                pending.push(n.getLeftNode());
+                ready = false;
+            }
+
+            if (ready) {
+                pending.pop();
+                index.put(n, order.size());
+                order.add(n);
+                if (Character.isLetter(n.getData())) {
+                    names.add(n.getName());
+                }
+            }
+        }
+
+        int size = order.size();
+        variables = names.toArray(new String[0]);
+        data = new char[size];
+        left = new int[size];
+        right = new int[size];
+        slot = new int[size];
+        costPrior = new double[size];
+
+        for (int i = 0; i < size; i++) {
+            TreeNode n = order.get(i);
+            data[i] = n.getData();
+            left[i] = n.getLeftNode() == null ? -1 : index.get(n.getLeftNode());
+            right[i] = n.getRightNode() == null ? -1 : index.get(n.getRightNode());
+            slot[i] = Character.isLetter(data[i]) ? Arrays.binarySearch(variables, n.getName()) : -1;
+
+            // until there are measurements, a subtree is expected to resolve all of its variables
+            if (slot[i] >= 0) {
+                costPrior[i] = 1;
+            }
+            if (left[i] >= 0) {
+                costPrior[i] += costPrior[left[i]];
+            }
+            if (right[i] >= 0) {
+                costPrior[i] += costPrior[right[i]];
+            }
+        }
+
+        root = size - 1;
+        nodeEpoch = new int[size];
+        nodeValue = new boolean[size];
+        variableEpoch = new int[variables.length];
+        variableValue = new boolean[variables.length];
+        evals = new long[size];
+        trues = new long[size];
+        cost = new long[size];
+        swapped = new boolean[size];
+        frameNode = new int[size];
+        frameState = new int[size];
+        frameStart = new long[size];
+        frameFirst = new boolean[size];
+    }
+
+    /**
+     * evaluates the tree, asking the provider only for the
+     * variables the result actually depends on
+     *
+     * @param provider source of the variable values
+     * @return result of the expression
+     */
+    public boolean evaluate(AssignmentProvider provider) {
+        long before = resolutions;
+        boolean ret = false;
+        int sp = 0;
+
+        epoch++;
+        sp = push(sp, root);
+
+        while (sp > 0) {
+            int top = sp - 1;
+            int n = frameNode[top];
+
+            if (nodeEpoch[n] == epoch) {
+                // shared node already evaluated in this pass
+                ret = nodeValue[n];
+                sp = pop(sp, ret);
+                continue;
+            }
+
+            char op = data[n];
+            if (slot[n] >= 0) {
+                ret = resolve(slot[n], provider);
+                sp = pop(sp, ret);
+            }
+            else if (left[n] < 0 && right[n] < 0) {
+                ret = op == '1';
+                sp = pop(sp, ret);
+            }
+            else if (op == '!') {
+                if (frameState[top] == 0) {
+                    frameState[top] = 1;
+                    sp = push(sp, right[n]);
+                }
+                else {
+                    ret = !ret;
+                    sp = pop(sp, ret);
+                }
+            }
+            else if (frameState[top] == 0) {
+                frameState[top] = 1;
+                sp = push(sp, swapped[n] ? right[n] : left[n]);
+            }
+            else if (frameState[top] == 1) {
+                if ((op == '&' && !ret) || (op == '|' && ret)) {
+                    // the first operand decides the result, skip the second
+                    sp = pop(sp, ret);
+                }
+                else {
+                    frameFirst[top] = ret;
+                    frameState[top] = 2;
+                    sp = push(sp, swapped[n] ? left[n] : right[n]);
+                }
+            }
+            else {
+                boolean first = frameFirst[top];
+                if (op == '&') {
+                    ret = first & ret;
+                }
+                else if (op == '|') {
+                    ret = first | ret;
+                }
+                else {
+                    ret = first ^ ret;
+                }
+                sp = pop(sp, ret);
+            }
+        }
+
+        lastResolutions = resolutions - before;
+        return ret;
+    }
+
+    /**
+     * getter for the number of variables the last evaluation resolved
+     *
+     * @return variables asked from the provider
+     */
+    public long getLastResolutions() {
+        return lastResolutions;
+    }
+
+    /**
+     * getter for the number of variables resolved by every evaluation so far
+     *
+     * @return variables asked from the provider
+     */
+    public long getTotalResolutions() {
+        return resolutions;
+    }
+
+    private boolean resolve(int s, AssignmentProvider provider) {
+        if (variableEpoch[s] != epoch) {
+            variableValue[s] = provider.valueOf(variables[s]);
+            variableEpoch[s] = epoch;
+            resolutions++;
+        }
+
+        return variableValue[s];
+    }
+
+    private int push(int sp, int n) {
+        frameNode[sp] = n;
+        frameState[sp] = 0;
+        frameStart[sp] = resolutions;
+        return sp + 1;
+    }
+
+    /**
+     * finishes the top frame, remembering its value for the rest
+     * of the pass and updating the statistics of the node
+     *
+     * @param sp stack size
+     * @param value value of the node
+     * @return new stack size
+     */
+    private int pop(int sp, boolean value) {
+        int top = sp - 1;
+        int n = frameNode[top];
+
+        nodeEpoch[n] = epoch;
+        nodeValue[n] = value;
+
+        if (adaptive) {
+            evals[n]++;
+            if (value) {
+                trues[n]++;
+            }
+            cost[n] += resolutions - frameStart[top];
+            if ((data[n] == '&' || data[n] == '|') && evals[n] % REORDER_INTERVAL == 0) {
+                reorder(n);
+            }
+        }
+
+        return top;
+    }
+
+    /**
+     * decides which operand of an {@code &} or {@code |} node goes first. The expected
+     * number of resolutions spent per decisive result is compared, using
+     * smoothed estimates so operands that were rarely evaluated still
+     * get a fair score
+     *
+     * @param n node index
+     */
+    private void reorder(int n) {
+        boolean decisiveValue = data[n] == '|';
+        swapped[n] = score(right[n], decisiveValue) < score(left[n], decisiveValue);
+    }
+
+    private double score(int c, boolean decisiveValue) {
+        double decisive = decisiveValue ? trues[c] : evals[c] - trues[c];
+        double probability = (decisive + 1) / (evals[c] + 2);
+        double expectedCost = (cost[c] + costPrior[c]) / (evals[c] + 1);
+
+        return expectedCost / probability;
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.*;
+
+/**
+ * Algebraic simplifier for expression trees. The tree is rebuilt bottom
+ * up out of shared nodes from a NodeInterner, so two subexpressions are
+ * structurally equal exactly when they are the same node, and every node
+ * is rewritten with these laws once its operands are simplified:
+ * <ul>
+ * <li>constant folding, a node whose operands are 0 or 1 becomes 0 or 1
+ * <li>identity and annihilator, a&amp;1 = a, a&amp;0 = 0, a|0 = a, a|1 = 1, a^0 = a, a^1 = !a
+ * <li>double negation, !!a = a
+ * <li>idempotence and complement, a&amp;a = a|a = a, a^a = 0, a&amp;!a = 0, a|!a = a^!a = 1
+ * <li>absorption, a&amp;(a|b) = a, a|(a&amp;b) = a
+ * </ul>
+ * Passes are repeated until the node count stops shrinking, up to
+ * MAX_PASSES, and each pass is linear in the number of distinct nodes.
+ *
+ */
+public final class Simplifier {
+    /** the most passes run before giving up on reaching a fixpoint */
+    public static final int MAX_PASSES = 8;
+
+    private final NodeInterner interner = new NodeInterner();
+    private final TreeNode zero = interner.node('0', null, null);
+    private final TreeNode one = interner.node('1', null, null);
+
+    private Simplifier() {
+    }
+
+    /**
+     * simplifies a tree
+     *
+     * @param root root node of the tree
+     * @return the simplified tree with the node counts before and after
+     */
+    public static Report simplify(TreeNode root) {
+        if (root == null) {
+            return new Report(null, 0, 0, 0);
+        }
+
+        Simplifier simplifier = new Simplifier();
+        int before = countNodes(root);
+        int after = before;
+        int passes = 0;
+        TreeNode result = root;
+
+        while (passes < MAX_PASSES) {
+            int previous = after;
+            result = simplifier.pass(result);
+            after = countNodes(result);
+            passes++;
+            if (after >= previous && passes > 1) {
+                break;
+            }
+        }
+
+        return new Report(result, before, after, passes);
+    }
+
+    /**
+     * counts the distinct nodes of a tree, a node shared
+     * by several parents is counted once
+     *
+     * @param root root node of the tree
+     * @return node count
+     */
+    public static int countNodes(TreeNode root) {
+        if (root == null) {
+            return 0;
+        }
+
+        Set<TreeNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(root);
+        seen.add(root);
+
+        while (!pending.isEmpty()) {
+            TreeNode n = pending.pop();
+            for (TreeNode child : new TreeNode[] {n.getLeftNode(), n.getRightNode()}) {
+                if (child != null && seen.add(child)) {
+                    pending.push(child);
+                }
+            }
+        }
+
+        return seen.size();
+    }
+
+    /**
+     * rewrites every distinct node once, after its operands,
+     * walking the tree with an explicit stack
+     *
+     * @param root root node of the tree
+     * @return root of the rewritten tree
+     */
+    private TreeNode pass(TreeNode root) {
+        IdentityHashMap<TreeNode, TreeNode> done = new IdentityHashMap<>();
+        ArrayDeque<TreeNode> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            TreeNode n = pending.peek();
+            if (done.containsKey(n)) {
+                pending.pop();
+                continue;
+            }
+
+            TreeNode left = n.getLeftNode();
+            TreeNode right = n.getRightNode();
+            boolean ready = true;
+
+            if (right != null && !done.containsKey(right)) {
+                pending.push(right);
+                ready = false;
+            }
+            if (left != null && !done.containsKey(left)) {
+                pending.push(left);
+                ready = false;
+            }
+
+            if (ready) {
+                pending.pop();
+                done.put(n, Character.isLetter(n.getData()) ? interner.variable(n.getName())
+                        : rewrite(n.getData(), done.get(left), done.get(right)));
+            }
+        }
+
+        return done.get(root);
+    }
+
+    /**
+     * builds a node from simplified operands, applying the first law that matches
+     *
+     * @param op node value
+     * @param l simplified left operand
+     * @param r simplified right operand
+     * @return the simplified node
+     */
+    private TreeNode rewrite(char op, TreeNode l, TreeNode r) {
+        switch (op) {
+            case '!':
+                return not(r);
+            case '&':
+                if (l == zero || r == zero || complements(l, r)) {
+                    return zero;
+                }
+                if (l == one || absorbs(l, '|', r)) {
+                    return r;
+                }
+                if (r == one || l == r || absorbs(r, '|', l)) {
+                    return l;
+                }
+                break;
+            case '|':
+                if (l == one || r == one || complements(l, r)) {
+                    return one;
+                }
+                if (l == zero || absorbs(l, '&', r)) {
+                    return r;
+                }
+                if (r == zero || l == r || absorbs(r, '&', l)) {
+                    return l;
+                }
+                break;
+            case '^':
+                if (l == r) {
+                    return zero;
+                }
+                if (complements(l, r)) {
+                    return one;
+                }
+                if (l == zero) {
+                    return r;
+                }
+                if (r == zero) {
+                    return l;
+                }
+                if (l == one) {
+                    return not(r);
+                }
+                if (r == one) {
+                    return not(l);
+                }
+                break;
+            default:
+                break;
+        }
+
+        return interner.node(op, l, r);
+    }
+
+    /**
+     * negates a simplified node, folding constants and double negation
+     *
+     * @param n simplified node
+     * @return the negated node
+     */
+    private TreeNode not(TreeNode n) {
+        if (n == zero) {
+            return one;
+        }
+        if (n == one) {
+            return zero;
+        }
+        if (n.getData() == '!') {
+            return n.getRightNode();
+        }
+
+        return interner.node('!', null, n);
+    }
+
+    /**
+     * checks whether one node is the negation of the other
+     */
+    private boolean complements(TreeNode a, TreeNode b) {
+        return (a.getData() == '!' && a.getRightNode() == b) || (b.getData() == '!' && b.getRightNode() == a);
+    }
+
+    /**
+     * checks whether a node is an op node with the given operand,
+     * in which case x op' (x op y) absorbs to x
+     */
+    private boolean absorbs(TreeNode n, char op, TreeNode operand) {
+        return n.getData() == op && (n.getLeftNode() == operand || n.getRightNode() == operand);
+    }
+
+    /**
+     * Outcome of a simplification, the new tree with
+     * the node counts before and after
+     */
+    public static final class Report {
+        private final TreeNode root;
+        private final int nodesBefore;
+        private final int nodesAfter;
+        private final int passes;
+
+        private Report(TreeNode root, int nodesBefore, int nodesAfter, int passes) {
+            this.root = root;
+            this.nodesBefore = nodesBefore;
+            this.nodesAfter = nodesAfter;
+            this.passes = passes;
+        }
+
+        //getters
+        public TreeNode getRoot() { return root; }
+
+        public int getNodesBefore() { return nodesBefore; }
+
+        public int getNodesAfter() { return nodesAfter; }
+
+        public int getPasses() { return passes; }
+
+        @Override
+        public String toString() {
+            return "nodes " + nodesBefore + " -> " + nodesAfter + " in " + passes + " pass(es)";
+        }
+    }
+}
@@ -0,0 +1,369 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.function.*;
+
+/**
+ * Evaluates a postfix expression straight from a stream, validating
+ * and evaluating in the same pass without building a tree. Operands are
+ * kept on a primitive bit stack, so memory grows with the stack depth
+ * of the expression and not with its length.
+ *
+ * Whitespace between symbols is skipped. With evaluate, variables are
+ * single letters whose values are supplied by a predicate over the
+ * letter. With evaluateNamed the predicate is given names instead, and
+ * names longer than one letter are written as [name] like everywhere
+ * else postfix is read.
+ *
+ */
+public final class StreamingEvaluator {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final IntPredicate values;
+    private final Predicate<String> names;
+    private long[] stack = new long[4];
+    private long depth;
+    private long position;
+    private Result error;
+
+    // bracketed name being read and the position of its [, name is null outside brackets
+    private StringBuilder name;
+    private long nameStart;
+
+    /**
+     * constructor to set the source of variable values, one of
+     * values and names is null
+     *
+     * @param values value of each variable letter
+     * @param names value of each variable name
+     */
+    private StreamingEvaluator(IntPredicate values, Predicate<String> names) {
+        this.values = values;
+        this.names = names;
+    }
+
+    /**
+     * evaluates the postfix expression read from a Reader
+     *
+     * @param in source of the postfix expression
+     * @param values value of each variable letter
+     * @return result of the expression, or the first validation error
+     * @throws IOException if reading fails
+     */
+    public static Result evaluate(Reader in, IntPredicate values) throws IOException {
+        return new StreamingEvaluator(values, null).run(in);
+    }
+
+    /**
+     * evaluates the postfix expression read from a Reader,
+     * with names longer than one letter written as [name]
+     *
+     * @param in source of the postfix expression
+     * @param values value of each variable name
+     * @return result of the expression, or the first validation error
+     * @throws IOException if reading fails
+     */
+    public static Result evaluateNamed(Reader in, Predicate<String> values) throws IOException {
+        return new StreamingEvaluator(null, values).run(in);
+    }
+
+    private Result run(Reader in) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        int n;
+
+        while ((n = in.read(buffer)) != -1) {
+            for (int i = 0; i < n; i++) {
+                if (!accept(buffer[i])) {
+                    return error;
+                }
+            }
+        }
+
+        return finish();
+    }
+
+    /**
+     * evaluates the postfix expression read from a channel. The
+     * bytes are read as single byte characters
+     *
+     * @param in source of the postfix expression
+     * @param values value of each variable letter
+     * @return result of the expression, or the first validation error
+     * @throws IOException if reading fails
+     */
+    public static Result evaluate(ReadableByteChannel in, IntPredicate values) throws IOException {
+        return new StreamingEvaluator(values, null).run(in);
+    }
+
+    /**
+     * evaluates the postfix expression read from a channel, with names
+     * longer than one letter written as [name]. The bytes are read as
+     * single byte characters
+     *
+     * @param in source of the postfix expression
+     * @param values value of each variable name
+     * @return result of the expression, or the first validation error
+     * @throws IOException if reading fails
+     */
+    public static Result evaluateNamed(ReadableByteChannel in, Predicate<String> values) throws IOException {
+        return new StreamingEvaluator(null, values).run(in);
+    }
+
+    private Result run(ReadableByteChannel in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                if (!accept((char) (buffer.get() & 0xFF))) {
+                    return error;
+                }
+            }
+            buffer.clear();
+        }
+
+        return finish();
+    }
+
+    /**
+     * evaluates a postfix expression held in a String
+     *
+     * @param postfixExp postfix expression
+     * @param values value of each variable letter
+     * @return result of the expression, or the first validation error
+     */
+    public static Result evaluate(CharSequence postfixExp, IntPredicate values) {
+        return new StreamingEvaluator(values, null).run(postfixExp);
+    }
+
+    /**
+     * evaluates a postfix expression held in a String,
+     * with names longer than one letter written as [name]
+     *
+     * @param postfixExp postfix expression
+     * @param values value of each variable name
+     * @return result of the expression, or the first validation error
+     */
+    public static Result evaluateNamed(CharSequence postfixExp, Predicate<String> values) {
+        return new StreamingEvaluator(null, values).run(postfixExp);
+    }
+
+    private Result run(CharSequence postfixExp) {
+        for (int i = 0; i < postfixExp.length(); i++) {
+            if (!accept(postfixExp.charAt(i))) {
+                return error;
+            }
+        }
+
+        return finish();
+    }
+
+    /**
+     * applies one character of the expression to the stack
+     *
+     * @param c next character
+     * @return false if the character made the expression invalid
+     */
+    private boolean accept(char c) {
+        boolean r;
+        boolean l;
+
+        if (name != null) {
+            return acceptName(c);
+        }
+
+        switch (c) {
+            case '0':
+                push(false);
+                break;
+            case '1':
+                push(true);
+                break;
+            case '!':
+                if (!needs(c, 1)) {
+                    return false;
+                }
+                push(!pop());
+                break;
+            case '&':
+                if (!needs(c, 2)) {
+                    return false;
+                }
+                r = pop();
+                l = pop();
+                push(l & r);
+                break;
+            case '|':
+                if (!needs(c, 2)) {
+                    return false;
+                }
+                r = pop();
+                l = pop();
+                push(l | r);
+                break;
+            case '^':
+                if (!needs(c, 2)) {
+                    return false;
+                }
+                r = pop();
+                l = pop();
+                push(l ^ r);
+                break;
+            case '[':
+                if (names == null) {
+                    error = Result.invalid(position, "Variable names in brackets need evaluateNamed");
+                    return false;
+                }
+                name = new StringBuilder();
+                nameStart = position;
+                break;
+            default:
+                if (Character.isLetter(c)) {
+                    push(names != null ? names.test(String.valueOf(c)) : values.test(c));
+                }
+                else if (!Character.isWhitespace(c)) {
+                    error = Result.invalid(position, "Unknown character '" + c + "'");
+                    return false;
+                }
+                break;
+        }
+
+        position++;
+        return true;
+    }
+
+    /**
+     * adds one character to the bracketed name being read,
+     * or pushes the value of the name at its ]
+     *
+     * @param c next character
+     * @return false if the name is not an identifier
+     */
+    private boolean acceptName(char c) {
+        if (c == ']' && name.length() > 0) {
+            push(names.test(name.toString()));
+            name = null;
+        }
+        else if (name.length() == 0 ? SymbolTable.isIdentifierStart(c) : SymbolTable.isIdentifierPart(c)) {
+            name.append(c);
+        }
+        else {
+            error = Result.invalid(nameStart, "Invalid variable name");
+            return false;
+        }
+
+        position++;
+        return true;
+    }
+
+    /**
+     * checks that there are enough operands on the stack for an operator
+     *
+     * @param op operator
+     * @param arity number of operands it takes
+     * @return true if there are enough operands
+     */
+    private boolean needs(char op, int arity) {
+        if (depth < arity) {
+            error = Result.invalid(position, "Operator '" + op + "' expects " + arity
+                    + " operand(s) but found " + depth);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * checks that the whole expression left exactly one value
+     *
+     * @return result of the expression or the validation error
+     */
+    private Result finish() {
+        if (name != null) {
+            return Result.invalid(nameStart, "Invalid variable name");
+        }
+        if (depth != 1) {
+            return Result.invalid(position, "Expression leaves " + depth + " values instead of 1");
+        }
+
+        return Result.valid(pop());
+    }
+
+    private void push(boolean bit) {
+        int word = (int) (depth >>> 6);
+        if (word == stack.length) {
+            long[] grown = new long[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, stack.length);
+            stack = grown;
+        }
+
+        if (bit) {
+            stack[word] |= 1L << depth;
+        }
+        else {
+            stack[word] &= ~(1L << depth);
+        }
+        depth++;
+    }
+
+    private boolean pop() {
+        depth--;
+        return (stack[(int) (depth >>> 6)] & (1L << depth)) != 0L;
+    }
+
+    /**
+     * Outcome of a streamed evaluation, either the value of the
+     * expression or the position and reason it is invalid
+     */
+    public static final class Result {
+        private final boolean valid;
+        private final boolean value;
+        private final long errorPosition;
+        private final String error;
+
+        private Result(boolean valid, boolean value, long errorPosition, String error) {
+            this.valid = valid;
+            this.value = value;
+            this.errorPosition = errorPosition;
+            this.error = error;
+        }
+
+        static Result valid(boolean value) {
+            return new Result(true, value, -1, null);
+        }
+
+        static Result invalid(long position, String error) {
+            return new Result(false, false, position, error);
+        }
+
+        //getters
+        public boolean isValid() { return valid; }
+
+        /**
+         * getter for the value of the expression
+         *
+         * @return value of a valid expression
+         * @throws IllegalStateException if the expression was invalid
+         */
+        public boolean getValue() {
+            if (!valid) {
+                throw new IllegalStateException(toString());
+            }
+
+            return value;
+        }
+
+        public long getErrorPosition() {
+            return errorPosition;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return valid ? String.valueOf(value) : "Invalid expression at position " + errorPosition + ": " + error;
+        }
+    }
+}
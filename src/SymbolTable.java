@@ -0,0 +1,200 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Table of variable names, giving every distinct name a dense int slot
+ * so it is looked up once while parsing or compiling, and evaluation
+ * only indexes primitive arrays by slot.
+ *
+ * A variable name is an identifier: a letter followed by any number of
+ * letters, digits and underscores, such as a or sensor_17. In infix text
+ * an identifier is the longest such run. Postfix and prefix text write
+ * operands next to each other, so there a one letter name stands alone
+ * and a longer name is wrapped in brackets:
+ * <pre>
+ *     infix:   (sensor_17 &amp; b) | !valve_2
+ *     postfix: [sensor_17]b&amp;[valve_2]!|
+ * </pre>
+ *
+ */
+public final class SymbolTable {
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private String[] names = new String[16];
+    private int size;
+
+    /**
+     * creates an empty table, slots are given out in the order names are added
+     */
+    public SymbolTable() {
+    }
+
+    /**
+     * creates a table with slots in alphabetical order of the names,
+     * the order used by CompiledExpression
+     *
+     * @param names distinct variable names
+     * @return table holding every name
+     */
+    public static SymbolTable sorted(Collection<String> names) {
+        String[] sorted = names.toArray(new String[0]);
+        Arrays.sort(sorted);
+        SymbolTable table = new SymbolTable();
+
+        for (String name : sorted) {
+            table.intern(name);
+        }
+
+        return table;
+    }
+
+    /**
+     * looks up the slot of a name, adding the name if it is new
+     *
+     * @param name variable name
+     * @return slot of the name
+     */
+    public int intern(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+        names[size] = name;
+        slots.put(name, size);
+        return size++;
+    }
+
+    /**
+     * looks up the slot of a name
+     *
+     * @param name variable name
+     * @return slot of the name, or -1 if it is not in the table
+     */
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * getter for the name in a slot, every slot holds a single
+     * String instance which nodes can share
+     *
+     * @param slot variable slot
+     * @return variable name
+     */
+    public String nameOf(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("No variable in slot " + slot);
+        }
+
+        return names[slot];
+    }
+
+    /**
+     * getter for the number of names
+     *
+     * @return name count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * getter for all names indexed by slot
+     *
+     * @return copy of the names
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(names, size);
+    }
+
+    /**
+     * checks whether a character can start a variable name
+     *
+     * @param c character from the expression
+     * @return true if c is a letter
+     */
+    public static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c);
+    }
+
+    /**
+     * checks whether a character can continue a variable name
+     *
+     * @param c character from the expression
+     * @return true if c is a letter, a digit or an underscore
+     */
+    public static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * finds the end of the identifier starting at a position
+     *
+     * @param text expression text
+     * @param start position of the first character, a letter
+     * @return position just after the identifier
+     */
+    public static int identifierEnd(CharSequence text, int start) {
+        int end = start + 1;
+
+        while (end < text.length() && isIdentifierPart(text.charAt(end))) {
+            end++;
+        }
+
+        return end;
+    }
+
+    /**
+     * finds the closing bracket of a bracketed postfix name
+     *
+     * @param text expression text
+     * @param open position of the [
+     * @return position of the matching ], or -1 if the name is missing,
+     *         not an identifier, or not closed
+     */
+    public static int bracketEnd(CharSequence text, int open) {
+        int start = open + 1;
+        if (start >= text.length() || !isIdentifierStart(text.charAt(start))) {
+            return -1;
+        }
+
+        int end = identifierEnd(text, start);
+        return end < text.length() && text.charAt(end) == ']' ? end : -1;
+    }
+
+    /**
+     * writes a name for postfix or prefix text, wrapped in
+     * brackets unless it is a single letter
+     *
+     * @param name variable name
+     * @param out destination of the name
+     * @throws IOException if out fails
+     */
+    public static void appendBracketed(String name, Appendable out) throws IOException {
+        if (name.length() == 1) {
+            out.append(name.charAt(0));
+        }
+        else {
+            out.append('[').append(name).append(']');
+        }
+    }
+
+    /**
+     * writes a name for postfix or prefix text into a StringBuilder
+     *
+     * @param name variable name
+     * @param out destination of the name
+     */
+    public static void appendBracketed(String name, StringBuilder out) {
+        if (name.length() == 1) {
+            out.append(name.charAt(0));
+        }
+        else {
+            out.append('[').append(name).append(']');
+        }
+    }
+}
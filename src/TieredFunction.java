@@ -0,0 +1,94 @@
+/**
+ * Evaluator which starts out interpreting a compiled expression and
+ * switches to generated bytecode once the expression is hot. Calls are
+ * counted until the threshold is reached, then BytecodeCompiler turns
+ * the expression into a hidden class which is used from then on.
+ *
+ */
+public final class TieredFunction implements BooleanFunction {
+    /** evaluations before the expression is compiled to bytecode */
+    public static final int DEFAULT_THRESHOLD = 10_000;
+
+    private final CompiledExpression interpreter;
+    private final int threshold;
+    private volatile BooleanFunction compiled;
+    private int calls;
+
+    /**
+     * constructor to use the default threshold
+     *
+     * @param interpreter compiled expression to interpret while cold
+     */
+    public TieredFunction(CompiledExpression interpreter) {
+        this(interpreter, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * constructor to set the threshold
+     *
+     * @param interpreter compiled expression to interpret while cold
+     * @param threshold evaluations before generating bytecode
+     */
+    public TieredFunction(CompiledExpression interpreter, int threshold) {
+        this.interpreter = interpreter;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public boolean evaluate(boolean[] values) {
+        return current().evaluate(values);
+    }
+
+    @Override
+    public boolean evaluate(long values) {
+        return current().evaluate(values);
+    }
+
+    /**
+     * evaluates the expression with the values bound in an assignment
+     *
+     * @param assignment values created by the interpreter's newAssignment
+     * @return result of the expression
+     */
+    public boolean evaluate(Assignment assignment) {
+        if (!assignment.matches(interpreter.variables())) {
+            throw new IllegalArgumentException("Assignment was created for a different set of variables");
+        }
+
+        return current().evaluate(assignment.values);
+    }
+
+    /**
+     * checks whether the bytecode has been generated yet
+     *
+     * @return true once the expression runs as generated code
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * picks the generated code if it exists, otherwise counts the call
+     * and generates the code when the threshold is reached. The count
+     * is not synchronized, racing threads only shift when that happens
+     *
+     * @return function to run
+     */
+    private BooleanFunction current() {
+        BooleanFunction f = compiled;
+        if (f != null) {
+            return f;
+        }
+
+        if (++calls >= threshold) {
+            synchronized (this) {
+                if (compiled == null) {
+                    compiled = BytecodeCompiler.compile(interpreter);
+                }
+                return compiled;
+            }
+        }
+
+        return interpreter;
+    }
+}
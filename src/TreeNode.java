@@ -6,6 +6,7 @@
  */
 public class TreeNode {
     private char data;
+    private String name;
     private TreeNode leftNode;
     private TreeNode rightNode;
 
@@ -28,6 +29,17 @@ public class TreeNode {
         this(d, null, null);
     }
 
+    /**
+     * constructor for a variable node, the data of the
+     * node is the first letter of the name
+     *
+     * @param name variable name, a letter followed by letters, digits or _
+     */
+    public TreeNode (String name) {
+        this(name.charAt(0), null, null);
+        this.name = name;
+    }
+
     /**
      * constructor to set the valud of a node with its left
      * and right child
@@ -45,6 +57,16 @@ public class TreeNode {
     //getters
     public char getData() { return data; }
 
+    /**
+     * getter for the variable name of a variable node,
+     * for other nodes the data as a string
+     *
+     * @return variable name
+     */
+    public String getName() {
+        return name != null ? name : String.valueOf(data);
+    }
+
     public TreeNode getLeftNode() {
         return leftNode;
     }
@@ -56,6 +78,7 @@ public class TreeNode {
     //setters
     public void setData(char data) {
         this.data = data;
+        this.name = null;
     }
 
     public void setLeftNode(TreeNode leftNode) {
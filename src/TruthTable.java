@@ -0,0 +1,170 @@
+import java.util.*;
+
+/**
+ * Full truth table of an expression, stored as a bitmap with one bit
+ * per assignment. Row r assigns variable slot i the value of bit i of r,
+ * so slot 0 alternates fastest.
+ *
+ * The table is built 64 rows at a time: every variable is held as a long
+ * bit pattern over the 64 rows of a word, and the compiled expression
+ * applies its operators to whole words.
+ *
+ */
+public final class TruthTable {
+    /** the most variables a table can be built for */
+    public static final int MAX_VARIABLES = 30;
+
+    /** bit patterns of the first six variables inside one word */
+    private static final long[] PATTERNS = {
+        0xAAAAAAAAAAAAAAAAL,
+        0xCCCCCCCCCCCCCCCCL,
+        0xF0F0F0F0F0F0F0F0L,
+        0xFF00FF00FF00FF00L,
+        0xFFFF0000FFFF0000L,
+        0xFFFFFFFF00000000L
+    };
+
+    private final String[] variables;
+    private final long[] bits;
+    private final long rows;
+
+    /**
+     * constructor for an already computed bitmap
+     *
+     * @param variables variable names indexed by slot
+     * @param bits result bitmap
+     */
+    private TruthTable(String[] variables, long[] bits) {
+        this.variables = variables;
+        this.bits = bits;
+        this.rows = 1L << variables.length;
+    }
+
+    /**
+     * builds the truth table of a compiled expression
+     *
+     * @param exp compiled expression
+     * @return truth table over all assignments of its variables
+     */
+    public static TruthTable of(CompiledExpression exp) {
+        int n = exp.getVariableCount();
+        if (n > MAX_VARIABLES) {
+            throw new IllegalArgumentException("Too many variables for a truth table: " + n);
+        }
+
+        String[] variables = new String[n];
+        for (int slot = 0; slot < n; slot++) {
+            variables[slot] = exp.getVariable(slot);
+        }
+
+        int words = n <= 6 ? 1 : 1 << (n - 6);
+        long[] bits = new long[words];
+        long[] values = new long[n];
+        long[] stack = exp.newWordStack();
+
+        for (int slot = 0; slot < Math.min(n, 6); slot++) {
+            values[slot] = PATTERNS[slot];
+        }
+
+        for (int w = 0; w < words; w++) {
+            // variables past the sixth are constant over a word
+            for (int slot = 6; slot < n; slot++) {
+                values[slot] = ((w >>> (slot - 6)) & 1) != 0 ? -1L : 0L;
+            }
+            bits[w] = exp.evaluateWords(values, stack);
+        }
+
+        // drop the rows past the end of a table with fewer than six variables
+        if (n < 6) {
+            bits[0] &= (1L << (1 << n)) - 1;
+        }
+
+        return new TruthTable(variables, bits);
+    }
+
+    /**
+     * getter for the result of one row
+     *
+     * @param row assignment, bit i holds the value of slot i
+     * @return result of the expression for that assignment
+     */
+    public boolean get(long row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " outside of table with " + rows + " rows");
+        }
+
+        return (bits[(int) (row >>> 6)] & (1L << row)) != 0L;
+    }
+
+    /**
+     * counts the assignments that make the expression true
+     *
+     * @return number of satisfying assignments
+     */
+    public long countSatisfying() {
+        long count = 0;
+
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
+    /**
+     * lists the assignments that make the expression true
+     *
+     * @return rows of the satisfying assignments in ascending order
+     */
+    public int[] getMinterms() {
+        int[] minterms = new int[(int) countSatisfying()];
+        int i = 0;
+
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0L) {
+                minterms[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+
+        return minterms;
+    }
+
+    /**
+     * getter for the result bitmap, one bit per row
+     *
+     * @return copy of the bitmap
+     */
+    public long[] getBits() {
+        return bits.clone();
+    }
+
+    /**
+     * getter for the number of rows
+     *
+     * @return 2 to the power of the variable count
+     */
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * getter for the name of the variable in a slot
+     *
+     * @param slot variable slot
+     * @return variable name
+     */
+    public String getVariable(int slot) {
+        return variables[slot];
+    }
+
+    /**
+     * getter for the number of variables
+     *
+     * @return variable count
+     */
+    public int getVariableCount() {
+        return variables.length;
+    }
+}
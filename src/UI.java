@@ -1,3 +1,5 @@
+import java.io.*;
+import java.nio.file.*;
 import java.util.*;
 
 /**
@@ -10,65 +12,167 @@ import java.util.*;
  */
 public class UI {
     Scanner in = new Scanner(System.in);
+    AssignmentProvider values = new ConsoleAssignmentProvider(in, System.out);
 
     /**
      * main method to call the askForInput method
-     * which does the interacting part with the user
+     * which does the interacting part with the user,
+     * or to evaluate a file of expressions when started as
+     * UI --batch [--postfix] input output,
+     * or to store a file of expressions, one per line, as a binary
+     * archive when started as UI --archive [--postfix] input output
      *
      *
      * @param args
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--archive")) {
+            runArchive(args);
+            return;
+        }
+
         UI runner = new UI();
         runner.askForInput();
     }
 
+    /**
+     * evaluates every line of the input file into the output file
+     *
+     * @param args command line arguments
+     */
+    private static void runBatch(String[] args) throws IOException {
+        boolean postfix = args.length == 4 && args[1].equals("--postfix");
+        if (args.length != (postfix ? 4 : 3)) {
+            System.err.println("Usage: UI --batch [--postfix] input output");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        long errors = new BatchEvaluator(postfix).run(Paths.get(args[args.length - 2]), Paths.get(args[args.length - 1]));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Finished in " + millis + " ms, " + errors + " line(s) with errors");
+    }
+
+    /**
+     * parses every non blank line of the input file and writes
+     * the expressions into an archive, in line order
+     *
+     * @param args command line arguments
+     */
+    private static void runArchive(String[] args) throws IOException {
+        boolean postfix = args.length == 4 && args[1].equals("--postfix");
+        if (args.length != (postfix ? 4 : 3)) {
+            System.err.println("Usage: UI --archive [--postfix] input output");
+            System.exit(2);
+        }
+
+        ExpressionArchive.Writer writer = new ExpressionArchive.Writer();
+        int lineNumber = 0;
+        int errors = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[args.length - 2]))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                try {
+                    writer.add(postfix ? CompactTree.fromPostfix(line) : CompactTree.fromInfix(line));
+                }
+                catch (ExpressionParseException e) {
+                    System.err.println("Line " + lineNumber + ": " + e.getMessage());
+                    errors++;
+                }
+            }
+        }
+
+        writer.write(Paths.get(args[args.length - 1]));
+        System.out.println("Stored " + writer.size() + " expression(s), " + errors + " line(s) with errors");
+    }
+
     /**
      * Asks the user if they want to enter a postfix expression or an infix expression
      * based on the entry, pass the parameter to the appropriate class for traversing the string
      * if user decides to quit the program, they can enter Q to do so.
+     * An invalid expression is reported with its position and the user is asked again
      *
      */
     private void askForInput() {
         String input = "";
-        ExpressionTree expIn = new ExpressionTree();
 
-        try {
-            while (!input.equals("q") && !input.equals("Q")) {
-                System.out.println("Please enter P for postfix boolean expression, I for infix expression: ");
+        while (!input.equals("q") && !input.equals("Q")) {
+            System.out.println("Please enter P for postfix boolean expression, I for infix expression: ");
+            input = in.nextLine();
+            if (input.compareToIgnoreCase("p") == 0) {
+                System.out.println("Please enter a postfix boolean expression: " );
                 input = in.nextLine();
-                if (input.compareToIgnoreCase("p") == 0) {
-                    System.out.println("Please enter a postfix boolean expression: " );
-                    input = in.nextLine();
-
-                    expIn = new ExpressionTree(input);
-                    System.out.println("Prefix: " +expIn.getPrefixExp());
-                    System.out.println("Infix: " +expIn.getInfixExp());
-                    System.out.println("Postfix: " +expIn.getPostfixExp());
-                    System.out.println();
-                    System.out.println("Evaluated Result: " + expIn.evaluate());
-                    System.out.println();
+
+                PostfixParser.Result result = PostfixParser.parse(input);
+                if (result.isValid()) {
+                    show(new ExpressionTree(result.getRoot()));
                 }
-                else if (input.compareToIgnoreCase("i") == 0) {
-                    System.out.println("Please enter a infix boolean expression: " );
-                    input = in.nextLine();
-
-                    String inToPost = expIn.translateToPostfix(input);
-                    expIn = new ExpressionTree(inToPost);
-                    System.out.println("Prefix: " +expIn.getPrefixExp());
-                    System.out.println("Infix: " +expIn.getInfixExp());
-                    System.out.println("Postfix: " +expIn.getPostfixExp());
-                    System.out.println();
-                    System.out.println("Evaluated Result: " + expIn.evaluate());
-                    System.out.println();
+                else {
+                    showError(input, result.getMessage(), result.getPosition());
                 }
-
-                System.out.println("Enter Q to exit");
+            }
+            else if (input.compareToIgnoreCase("i") == 0) {
+                System.out.println("Please enter a infix boolean expression: " );
                 input = in.nextLine();
+
+                ExpressionTree expIn;
+                try {
+                    expIn = ExpressionTree.fromInfix(input);
+                }
+                catch (ExpressionParseException e) {
+                    showError(input, e.getMessage(), e.getPosition());
+                    expIn = null;
+                }
+                if (expIn != null) {
+                    show(expIn);
+                }
             }
-        }catch (NullPointerException e) {
-            System.out.println("Invalid Expression");
+
+            System.out.println("Enter Q to exit");
+            input = in.nextLine();
         }
 
     }
+
+    /**
+     * prints the forms of an expression, simplifies it
+     * and evaluates it with values from the user
+     *
+     * @param expIn expression to show
+     */
+    private void show(ExpressionTree expIn) {
+        System.out.println("Prefix: " +expIn.getPrefixExp());
+        System.out.println("Infix: " +expIn.getInfixExp());
+        System.out.println("Postfix: " +expIn.getPostfixExp());
+        Simplifier.Report report = expIn.simplify();
+        System.out.println("Simplified: " +expIn.getInfixExp(true) + " (" + report + ")");
+        System.out.println();
+        System.out.println("Evaluated Result: " + expIn.evaluate(values));
+        System.out.println();
+    }
+
+    /**
+     * prints an error with a marker under the position
+     * in the input where it was found
+     *
+     * @param input expression entered by the user
+     * @param message description of the error
+     * @param position index in the input, counting from 0
+     */
+    private void showError(String input, String message, int position) {
+        System.out.println("Invalid Expression: " + message);
+        System.out.println("  " + input);
+        System.out.println("  " + " ".repeat(position) + "^");
+        System.out.println();
+    }
 }
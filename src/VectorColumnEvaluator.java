@@ -0,0 +1,540 @@
+import java.util.*;
+import jdk.incubator.vector.*;
+
+/**
+ * ColumnFilter backend which runs the expression over bit packed columns
+ * with the incubating Vector API, applying each operator to a whole
+ * vector of words, SPECIES.length() words at a time.
+ *
+ * The postfix instructions are compiled into runs. A run starts from one
+ * column or buffer and folds further columns or buffers into it with
+ * and, or, xor and and-not, so a left or right deep chain of operators
+ * becomes a single run. Columns are read where they are instead of being
+ * copied onto a stack, and only operands which are themselves chains,
+ * and shared subexpressions, go through a chunk buffer.
+ *
+ * A run goes through its chunk TILE words at a time, applying all of its
+ * operators to one tile before moving on to the next, so the value folded
+ * so far stays in the L1 cache between operators. Each operator is its
+ * own tight vector loop: switching on the operator for every vector to
+ * keep the value in a register was measured to cost more than it saved.
+ *
+ * ! costs nothing: every operand carries a pending negation which is
+ * folded into the next operator, using de Morgan's laws and and-not,
+ * or into the store of the last run. Constants are folded away while
+ * compiling.
+ *
+ * This is the only class using jdk.incubator.vector. ColumnFilter loads
+ * it reflectively and keeps to its scalar loops when the module is not
+ * available, so it needs --add-modules jdk.incubator.vector both when it
+ * is compiled and when it is run.
+ *
+ */
+final class VectorColumnEvaluator implements ColumnFilter.Backend {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    // run operators, acc is the value folded so far and x the next operand
+    private static final byte AND = 0;      // acc & x
+    private static final byte OR = 1;       // acc | x
+    private static final byte XOR = 2;      // acc ^ x
+    private static final byte AND_NOT = 3;  // acc & ~x
+    private static final byte NOT_AND = 4;  // ~acc & x
+
+    // operands are column slots, buffers are stored as -(buffer + 1)
+    // and the result as RESULT
+    private static final int RESULT = Integer.MIN_VALUE;
+
+    /** words of a run processed by each operator at a time */
+    static final int TILE = 256;
+
+    private final int runCount;
+    private final int[] firsts;
+    private final int[] opStarts;
+    private final int[] targets;
+    private final boolean[] inverts;
+    private final byte[] ops;
+    private final int[] sources;
+    private final int bufferCount;
+    private final long constant;
+    private final boolean isConstant;
+
+    /**
+     * constructor which compiles the instructions into runs
+     *
+     * @param exp compiled expression
+     */
+    VectorColumnEvaluator(CompiledExpression exp) {
+        Compiler compiler = new Compiler(exp);
+        Operand root = compiler.compile();
+
+        isConstant = root.kind == Operand.CONSTANT;
+        constant = root.negated ? -1L : 0L;
+        if (!isConstant) {
+            compiler.finish(root);
+        }
+
+        runCount = compiler.runCount;
+        firsts = Arrays.copyOf(compiler.firsts, runCount);
+        opStarts = Arrays.copyOf(compiler.opStarts, runCount + 1);
+        opStarts[runCount] = compiler.opCount;
+        targets = Arrays.copyOf(compiler.targets, runCount);
+        inverts = Arrays.copyOf(compiler.inverts, runCount);
+        ops = Arrays.copyOf(compiler.ops, compiler.opCount);
+        sources = Arrays.copyOf(compiler.sources, compiler.opCount);
+        bufferCount = compiler.bufferCount;
+    }
+
+    /**
+     * getter for the number of words in a vector
+     *
+     * @return lanes of the preferred species
+     */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public ColumnFilter.Worker newWorker() {
+        return new Worker();
+    }
+
+    /**
+     * Chunk buffers and resolved operand arrays of one thread
+     */
+    private final class Worker implements ColumnFilter.Worker {
+        private final long[][] buffers = new long[bufferCount][ColumnFilter.CHUNK_WORDS];
+        private final long[][] arrays = new long[ops.length][];
+        private final int[] offsets = new int[ops.length];
+
+        @Override
+        public void run(long[][] columns, long[] result, int start, int n) {
+            if (isConstant) {
+                Arrays.fill(result, start, start + n, constant);
+                return;
+            }
+
+            for (int run = 0; run < runCount; run++) {
+                int from = opStarts[run];
+                int to = opStarts[run + 1];
+                for (int k = from; k < to; k++) {
+                    arrays[k] = array(sources[k], columns);
+                    offsets[k] = offset(sources[k], start);
+                }
+
+                long[] first = array(firsts[run], columns);
+                int firstOffset = offset(firsts[run], start);
+                long[] target = targets[run] == RESULT ? result : buffers[-targets[run] - 1];
+                int targetOffset = targets[run] == RESULT ? start : 0;
+                boolean invert = inverts[run];
+
+                for (int base = 0; base < n; base += TILE) {
+                    int m = Math.min(TILE, n - base);
+                    if (from == to) {
+                        System.arraycopy(first, firstOffset + base, target, targetOffset + base, m);
+                    }
+                    else {
+                        apply(ops[from], first, firstOffset + base, arrays[from], offsets[from] + base,
+                                target, targetOffset + base, m);
+                    }
+                    for (int k = from + 1; k < to; k++) {
+                        apply(ops[k], target, targetOffset + base, arrays[k], offsets[k] + base,
+                                target, targetOffset + base, m);
+                    }
+                    if (invert) {
+                        not(target, targetOffset + base, m);
+                    }
+                }
+            }
+        }
+
+        private long[] array(int operand, long[][] columns) {
+            return operand >= 0 ? columns[operand] : buffers[-operand - 1];
+        }
+
+        private int offset(int operand, int start) {
+            return operand >= 0 ? start : 0;
+        }
+    }
+
+    /**
+     * applies a run operator to m words, out may be the same array as a
+     */
+    private static void apply(byte op, long[] a, int aOffset, long[] x, int xOffset, long[] out, int outOffset, int m) {
+        int i = 0;
+        int upper = SPECIES.loopBound(m);
+
+        switch (op) {
+            case AND:
+                for (; i < upper; i += SPECIES.length()) {
+                    LongVector.fromArray(SPECIES, a, aOffset + i)
+                            .and(LongVector.fromArray(SPECIES, x, xOffset + i))
+                            .intoArray(out, outOffset + i);
+                }
+                for (; i < m; i++) {
+                    out[outOffset + i] = a[aOffset + i] & x[xOffset + i];
+                }
+                break;
+            case OR:
+                for (; i < upper; i += SPECIES.length()) {
+                    LongVector.fromArray(SPECIES, a, aOffset + i)
+                            .or(LongVector.fromArray(SPECIES, x, xOffset + i))
+                            .intoArray(out, outOffset + i);
+                }
+                for (; i < m; i++) {
+                    out[outOffset + i] = a[aOffset + i] | x[xOffset + i];
+                }
+                break;
+            case XOR:
+                for (; i < upper; i += SPECIES.length()) {
+                    LongVector.fromArray(SPECIES, a, aOffset + i)
+                            .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, x, xOffset + i))
+                            .intoArray(out, outOffset + i);
+                }
+                for (; i < m; i++) {
+                    out[outOffset + i] = a[aOffset + i] ^ x[xOffset + i];
+                }
+                break;
+            case AND_NOT:
+                for (; i < upper; i += SPECIES.length()) {
+                    LongVector.fromArray(SPECIES, a, aOffset + i)
+                            .lanewise(VectorOperators.AND_NOT, LongVector.fromArray(SPECIES, x, xOffset + i))
+                            .intoArray(out, outOffset + i);
+                }
+                for (; i < m; i++) {
+                    out[outOffset + i] = a[aOffset + i] & ~x[xOffset + i];
+                }
+                break;
+            default:
+                for (; i < upper; i += SPECIES.length()) {
+                    LongVector.fromArray(SPECIES, x, xOffset + i)
+                            .lanewise(VectorOperators.AND_NOT, LongVector.fromArray(SPECIES, a, aOffset + i))
+                            .intoArray(out, outOffset + i);
+                }
+                for (; i < m; i++) {
+                    out[outOffset + i] = ~a[aOffset + i] & x[xOffset + i];
+                }
+                break;
+        }
+    }
+
+    private static void not(long[] a, int offset, int m) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(m); i < upper; i += SPECIES.length()) {
+            LongVector.fromArray(SPECIES, a, offset + i).not().intoArray(a, offset + i);
+        }
+        for (; i < m; i++) {
+            a[offset + i] = ~a[offset + i];
+        }
+    }
+
+    /**
+     * Operand on the compile time stack
+     */
+    private static final class Operand {
+        static final int CONSTANT = 0;
+        static final int SOURCE = 1;
+        static final int OPEN_RUN = 2;
+
+        final int kind;
+        // column or buffer of a SOURCE, index of an OPEN_RUN
+        final int value;
+        // true if the operand is the complement of its value,
+        // a CONSTANT is 0 and negated is 1
+        final boolean negated;
+
+        Operand(int kind, int value, boolean negated) {
+            this.kind = kind;
+            this.value = value;
+            this.negated = negated;
+        }
+
+        Operand not() {
+            return new Operand(kind, value, !negated);
+        }
+    }
+
+    /**
+     * Turns the instructions into runs by evaluating them over a stack
+     * of Operands. At most one run is open at a time, the last one,
+     * and it is given a buffer as soon as anything else needs one
+     */
+    private static final class Compiler {
+        private final byte[] code;
+        private final int[] codeOperands;
+        private final int[] references;
+        private final Operand[] temps;
+        private final ArrayDeque<Integer> freeBuffers = new ArrayDeque<>();
+        private Operand open;
+
+        int runCount;
+        int[] firsts = new int[8];
+        int[] opStarts = new int[9];
+        int[] targets = new int[8];
+        boolean[] inverts = new boolean[8];
+        int opCount;
+        byte[] ops = new byte[16];
+        int[] sources = new int[16];
+        int bufferCount;
+
+        // buffers read by the open run, released when it is stored
+        private final ArrayList<Integer> releasedBuffers = new ArrayList<>();
+
+        Compiler(CompiledExpression exp) {
+            code = exp.code();
+            codeOperands = exp.operands();
+            temps = new Operand[exp.tempCount()];
+            references = new int[code.length];
+        }
+
+        /**
+         * evaluates the instructions symbolically
+         *
+         * @return operand holding the whole expression
+         */
+        Operand compile() {
+            int[] tempUses = new int[temps.length];
+            for (int pc = 0; pc < code.length; pc++) {
+                if (code[pc] == CompiledExpression.TEMP) {
+                    tempUses[codeOperands[pc]]++;
+                }
+            }
+
+            Operand[] stack = new Operand[code.length + 1];
+            int top = -1;
+
+            for (int pc = 0; pc < code.length; pc++) {
+                switch (code[pc]) {
+                    case CompiledExpression.FALSE:
+                        stack[++top] = new Operand(Operand.CONSTANT, 0, false);
+                        break;
+                    case CompiledExpression.TRUE:
+                        stack[++top] = new Operand(Operand.CONSTANT, 0, true);
+                        break;
+                    case CompiledExpression.LOAD:
+                        stack[++top] = new Operand(Operand.SOURCE, codeOperands[pc], false);
+                        break;
+                    case CompiledExpression.NOT:
+                        stack[top] = stack[top].not();
+                        break;
+                    case CompiledExpression.AND:
+                    case CompiledExpression.OR:
+                    case CompiledExpression.XOR:
+                        top--;
+                        stack[top] = combine(code[pc], stack[top], stack[top + 1]);
+                        break;
+                    case CompiledExpression.TEE:
+                        // the temporary keeps one reference per later use
+                        stack[top] = store(resolve(stack[top]));
+                        temps[codeOperands[pc]] = stack[top];
+                        reference(stack[top], tempUses[codeOperands[pc]]);
+                        break;
+                    case CompiledExpression.TEMP:
+                        stack[++top] = temps[codeOperands[pc]];
+                        break;
+                }
+            }
+
+            return resolve(stack[0]);
+        }
+
+        /**
+         * writes the last run into the result, or copies
+         * a column or buffer there
+         */
+        void finish(Operand root) {
+            root = resolve(root);
+            if (root.kind == Operand.OPEN_RUN) {
+                targets[root.value] = RESULT;
+                inverts[root.value] = root.negated;
+            }
+            else {
+                close();
+                int run = newRun(root.value);
+                targets[run] = RESULT;
+                inverts[run] = root.negated;
+            }
+            open = null;
+        }
+
+        /**
+         * applies a binary operator, folding constants and negations
+         */
+        private Operand combine(byte op, Operand a, Operand b) {
+            a = resolve(a);
+            b = resolve(b);
+            if (a.kind == Operand.CONSTANT || b.kind == Operand.CONSTANT) {
+                Operand c = a.kind == Operand.CONSTANT ? a : b;
+                Operand other = c == a ? b : a;
+                boolean one = c.negated;
+
+                if (other.kind == Operand.CONSTANT) {
+                    boolean x = other.negated;
+                    boolean value = op == CompiledExpression.AND ? one & x
+                            : op == CompiledExpression.OR ? one | x : one ^ x;
+                    return new Operand(Operand.CONSTANT, 0, value);
+                }
+                if (op == CompiledExpression.AND) {
+                    return one ? other : discard(other, false);
+                }
+                if (op == CompiledExpression.OR) {
+                    return one ? discard(other, true) : other;
+                }
+                return one ? other.not() : other;
+            }
+
+            // the open run is always the operand pushed last
+            Operand run;
+            Operand x;
+            if (b.kind == Operand.OPEN_RUN) {
+                run = b;
+                x = a;
+            }
+            else if (a.kind == Operand.OPEN_RUN) {
+                run = a;
+                x = b;
+            }
+            else {
+                close();
+                run = new Operand(Operand.OPEN_RUN, newRun(a.value), a.negated);
+                open = run;
+                x = b;
+                release(a);
+            }
+
+            boolean accNegated = run.negated;
+            boolean xNegated = x.negated;
+            byte runOp;
+            boolean negated;
+
+            if (op == CompiledExpression.XOR) {
+                runOp = XOR;
+                negated = accNegated ^ xNegated;
+            }
+            else {
+                // or is and with every value complemented, ~(~acc & ~x)
+                boolean isOr = op == CompiledExpression.OR;
+                if (isOr) {
+                    accNegated = !accNegated;
+                    xNegated = !xNegated;
+                }
+                if (!accNegated && !xNegated) {
+                    runOp = AND;
+                    negated = false;
+                }
+                else if (accNegated && xNegated) {
+                    runOp = OR;
+                    negated = true;
+                }
+                else if (xNegated) {
+                    runOp = AND_NOT;
+                    negated = false;
+                }
+                else {
+                    runOp = NOT_AND;
+                    negated = false;
+                }
+                negated ^= isOr;
+            }
+
+            addOp(runOp, x.value);
+            release(x);
+            open = new Operand(Operand.OPEN_RUN, run.value, negated);
+            return open;
+        }
+
+        /**
+         * drops an operand whose value no longer matters, as in x &amp; 0
+         */
+        private Operand discard(Operand x, boolean value) {
+            if (x.kind == Operand.OPEN_RUN) {
+                // its buffers were read by the run, which still has to be stored somewhere
+                x = store(x);
+            }
+            release(x);
+            return new Operand(Operand.CONSTANT, 0, value);
+        }
+
+        /**
+         * turns an operand for a run which has been stored into its buffer
+         */
+        private Operand resolve(Operand x) {
+            if (x.kind != Operand.OPEN_RUN || (open != null && open.value == x.value)) {
+                return x;
+            }
+
+            return new Operand(Operand.SOURCE, targets[x.value], x.negated);
+        }
+
+        /**
+         * gives an operand a buffer if it is the open run
+         */
+        private Operand store(Operand x) {
+            if (x.kind != Operand.OPEN_RUN) {
+                return x;
+            }
+
+            close();
+            return new Operand(Operand.SOURCE, targets[x.value], x.negated);
+        }
+
+        /**
+         * stores the open run into a buffer. The buffers it reads are only
+         * freed afterwards, the run folds into its buffer one operator at
+         * a time so it must not overwrite an operand it still has to read
+         */
+        private void close() {
+            if (open == null) {
+                return;
+            }
+
+            int buffer = freeBuffers.isEmpty() ? bufferCount++ : freeBuffers.pop();
+            targets[open.value] = -(buffer + 1);
+            references[buffer] = 1;
+            open = null;
+
+            for (int released : releasedBuffers) {
+                freeBuffers.push(released);
+            }
+            releasedBuffers.clear();
+        }
+
+        private void reference(Operand x, int count) {
+            if (x.kind == Operand.SOURCE && x.value < 0) {
+                references[-x.value - 1] += count;
+            }
+        }
+
+        /**
+         * drops one reference to a buffer, which becomes free
+         * once the run reading it is stored
+         */
+        private void release(Operand x) {
+            if (x.kind == Operand.SOURCE && x.value < 0 && --references[-x.value - 1] == 0) {
+                releasedBuffers.add(-x.value - 1);
+            }
+        }
+
+        private int newRun(int first) {
+            if (runCount == firsts.length) {
+                firsts = Arrays.copyOf(firsts, runCount * 2);
+                opStarts = Arrays.copyOf(opStarts, runCount * 2 + 1);
+                targets = Arrays.copyOf(targets, runCount * 2);
+                inverts = Arrays.copyOf(inverts, runCount * 2);
+            }
+
+            firsts[runCount] = first;
+            opStarts[runCount] = opCount;
+            return runCount++;
+        }
+
+        private void addOp(byte op, int source) {
+            if (opCount == ops.length) {
+                ops = Arrays.copyOf(ops, opCount * 2);
+                sources = Arrays.copyOf(sources, opCount * 2);
+            }
+
+            ops[opCount] = op;
+            sources[opCount++] = source;
+        }
+    }
+}